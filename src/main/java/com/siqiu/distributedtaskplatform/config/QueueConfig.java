@@ -1,18 +1,30 @@
 package com.siqiu.distributedtaskplatform.config;
 
+import com.siqiu.distributedtaskplatform.metrics.SqsHttpPoolMetrics;
 import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
 import com.siqiu.distributedtaskplatform.queue.DeadLetterClient;
 import com.siqiu.distributedtaskplatform.queue.SqsDeadLetterClient;
+import com.siqiu.distributedtaskplatform.queue.SqsQueueRouting;
 import com.siqiu.distributedtaskplatform.queue.SqsTaskQueueClient;
 import com.siqiu.distributedtaskplatform.queue.TaskQueueClient;
 import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
 import com.siqiu.distributedtaskplatform.worker.SqsWorkerLoop;
+import com.siqiu.distributedtaskplatform.worker.SqsWorkerSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
 
+import java.time.Duration;
+
 @Configuration
+@EnableConfigurationProperties(SqsQueueRouting.class)
 public class QueueConfig {
 
     @Bean
@@ -31,21 +43,77 @@ public class QueueConfig {
                 .build();
     }
 
+    /**
+     * Non-blocking client on a pooled Netty NIO HTTP client. When enabled, sends, receives, deletes
+     * and visibility changes go through it and complete as CompletableFutures instead of holding a
+     * thread per in-flight request. The sync client stays around for one-off calls (GetQueueUrl).
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "dtp.sqs.async.enabled", havingValue = "true")
+    public SqsAsyncClient sqsAsyncClient(
+            @Value("${dtp.sqs.endpoint}") String endpoint,
+            @Value("${dtp.sqs.region}") String region,
+            @Value("${dtp.sqs.async.max-concurrency:100}") int maxConcurrency,
+            @Value("${dtp.sqs.async.max-pending-acquires:10000}") int maxPendingAcquires,
+            @Value("${dtp.sqs.async.connection-acquire-timeout-ms:10000}") long acquireTimeoutMs,
+            MeterRegistry registry
+    ) {
+        return SqsAsyncClient.builder()
+                .endpointOverride(java.net.URI.create(endpoint))
+                .region(software.amazon.awssdk.regions.Region.of(region))
+                .credentialsProvider(
+                        software.amazon.awssdk.auth.credentials.StaticCredentialsProvider.create(
+                                software.amazon.awssdk.auth.credentials.AwsBasicCredentials.create("test", "test")
+                        )
+                )
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(maxConcurrency)
+                        .maxPendingConnectionAcquires(maxPendingAcquires)
+                        .connectionAcquisitionTimeout(Duration.ofMillis(acquireTimeoutMs)))
+                .overrideConfiguration(o -> o.addMetricPublisher(new SqsHttpPoolMetrics(registry)))
+                .build();
+    }
+
     @Bean
     public TaskQueueClient taskQueueClient(
             SqsClient sqsClient,
-            @Value("${dtp.sqs.queueName}") String queueName
+            ObjectProvider<SqsAsyncClient> sqsAsyncClient,
+            @Value("${dtp.sqs.queueName}") String queueName,
+            SqsQueueRouting routing
     ) {
-        return new SqsTaskQueueClient(sqsClient, queueName);
+        return new SqsTaskQueueClient(sqsClient, sqsAsyncClient.getIfAvailable(), queueName, routing);
     }
 
     @Bean
     public DeadLetterClient deadLetterClient(
             SqsClient sqsClient,
+            ObjectProvider<SqsAsyncClient> sqsAsyncClient,
             @Value("${dtp.sqs.dlqName}") String dlqName,
             com.fasterxml.jackson.databind.ObjectMapper mapper
     ) {
-        return new SqsDeadLetterClient(sqsClient, dlqName, mapper);
+        return new SqsDeadLetterClient(sqsClient, sqsAsyncClient.getIfAvailable(), dlqName, mapper);
+    }
+
+    @Bean
+    public SqsWorkerSettings sqsWorkerSettings(
+            @Value("${dtp.sqs.worker.concurrency:10}") int concurrency,
+            @Value("${dtp.sqs.worker.virtual-threads:true}") boolean virtualThreads,
+            @Value("${dtp.sqs.ack.batch-size:10}") int ackBatchSize,
+            @Value("${dtp.sqs.ack.flush-interval-ms:100}") long ackFlushIntervalMs,
+            @Value("${dtp.sqs.worker.visibility-timeout-seconds:30}") int visibilityTimeoutSeconds,
+            @Value("${dtp.sqs.worker.max-pollers:4}") int maxPollers,
+            @Value("${dtp.sqs.worker.wait-time-seconds:20}") int waitTimeSeconds,
+            @Value("${dtp.sqs.worker.prefetch:10}") int prefetch,
+            @Value("${dtp.sqs.completion.flush-interval-ms:0}") long completionFlushIntervalMs,
+            @Value("${dtp.sqs.completion.max-batch:100}") int completionMaxBatch,
+            @Value("${dtp.sqs.worker.shutdown-grace-seconds:30}") int shutdownGraceSeconds,
+            @Value("${dtp.sqs.retry.backoff-seconds:30}") long retryBackoffSeconds,
+            @Value("${dtp.sqs.retry.in-place-grace-seconds:0}") long inPlaceRetryGraceSeconds
+    ) {
+        return new SqsWorkerSettings(concurrency, virtualThreads, ackBatchSize, ackFlushIntervalMs,
+                visibilityTimeoutSeconds, maxPollers, waitTimeSeconds, prefetch,
+                completionFlushIntervalMs, completionMaxBatch, shutdownGraceSeconds,
+                retryBackoffSeconds, inPlaceRetryGraceSeconds);
     }
 
 }
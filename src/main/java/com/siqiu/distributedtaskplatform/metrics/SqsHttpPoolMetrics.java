@@ -0,0 +1,70 @@
+package com.siqiu.distributedtaskplatform.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exposes the SqsAsyncClient's Netty connection pool state as gauges; that pool is the one sized
+ * by dtp.sqs.async.max-concurrency, and the one requests queue on when it's too small.
+ *
+ * The SDK reports pool usage with every API call's metrics (after the call), so the gauges show
+ * the pool as the most recent request saw it. Registered on the client with
+ * overrideConfiguration().addMetricPublisher(...).
+ */
+public class SqsHttpPoolMetrics implements MetricPublisher {
+
+    private final AtomicInteger max = new AtomicInteger();
+    private final AtomicInteger leased = new AtomicInteger();
+    private final AtomicInteger available = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public SqsHttpPoolMetrics(MeterRegistry registry) {
+        Gauge.builder("dtp_sqs_http_pool_max", max, AtomicInteger::get)
+                .description("Max concurrent connections (or streams) the SQS HTTP client allows")
+                .register(registry);
+        Gauge.builder("dtp_sqs_http_pool_leased", leased, AtomicInteger::get)
+                .description("SQS HTTP connections currently in use")
+                .register(registry);
+        Gauge.builder("dtp_sqs_http_pool_available", available, AtomicInteger::get)
+                .description("Idle SQS HTTP connections ready to be used")
+                .register(registry);
+        Gauge.builder("dtp_sqs_http_pool_pending", pending, AtomicInteger::get)
+                .description("SQS requests waiting for a connection from the pool")
+                .register(registry);
+    }
+
+    @Override
+    public void publish(MetricCollection metrics) {
+        record(metrics);
+    }
+
+    // Pool metrics live in the per-attempt HTTP child collections
+    private void record(MetricCollection metrics) {
+        latest(metrics, HttpMetric.MAX_CONCURRENCY, max);
+        latest(metrics, HttpMetric.LEASED_CONCURRENCY, leased);
+        latest(metrics, HttpMetric.AVAILABLE_CONCURRENCY, available);
+        latest(metrics, HttpMetric.PENDING_CONCURRENCY_ACQUIRES, pending);
+        for (MetricCollection child : metrics.children()) {
+            record(child);
+        }
+    }
+
+    private static void latest(MetricCollection metrics, SdkMetric<Integer> metric, AtomicInteger target) {
+        List<Integer> values = metrics.metricValues(metric);
+        if (!values.isEmpty()) {
+            target.set(values.get(values.size() - 1));
+        }
+    }
+
+    @Override
+    public void close() {
+        // nothing buffered
+    }
+}
@@ -1,19 +1,24 @@
 package com.siqiu.distributedtaskplatform.metrics;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
+import java.util.function.ToDoubleFunction;
 
 @Component
 public class TaskMetrics {
 
+    private final MeterRegistry registry;
+
     private final Timer scheduleLagTimer; // histogram-backed timer
-    private final Counter sqsMessagesReceived;
-    private final Counter sqsMessagesDeleted;
     private final Counter sqsClaimFailed;
+    private final Timer sqsPrefetchWait;
+    private final Counter sqsPrefetchExpired;
 
     private final Counter tasksProcessed;
     private final Counter tasksSucceeded;
@@ -22,6 +27,7 @@ public class TaskMetrics {
 
 
     public TaskMetrics(MeterRegistry registry) {
+        this.registry = registry;
         this.scheduleLagTimer = Timer.builder("dtp_task_schedule_lag_seconds")
                 .description("Lag between scheduled_for and actual processing start")
                 .publishPercentileHistogram(true)   // <-- key: creates _bucket series
@@ -35,12 +41,13 @@ public class TaskMetrics {
                 )
                 .register(registry);
 
-        this.sqsMessagesReceived = Counter.builder("dtp_sqs_messages_received_total")
-                .description("Number of SQS messages received by worker")
+        this.sqsPrefetchWait = Timer.builder("dtp_sqs_prefetch_wait_seconds")
+                .description("Time a received message waited in the prefetch buffer before a worker picked it up")
+                .publishPercentileHistogram(true)
                 .register(registry);
 
-        this.sqsMessagesDeleted = Counter.builder("dtp_sqs_messages_deleted_total")
-                .description("Number of SQS messages deleted by worker")
+        this.sqsPrefetchExpired = Counter.builder("dtp_sqs_prefetch_expired_total")
+                .description("Number of prefetched messages whose visibility timeout ran out before processing started")
                 .register(registry);
 
         this.sqsClaimFailed = Counter.builder("dtp_task_claim_failed_total")
@@ -69,8 +76,60 @@ public class TaskMetrics {
         scheduleLagTimer.record(lag);
     }
 
-    public void incReceived() { sqsMessagesReceived.increment(); }
-    public void incDeleted() { sqsMessagesDeleted.increment(); }
+    // Per-queue SQS meters are tagged queue=<queue name> and registered on first use
+    // (one queue per task type, see SqsQueueRouting)
+
+    /** The queue tag for a queue URL (its last path segment, i.e. the queue name). */
+    public static String queueTag(String queueUrl) {
+        return queueUrl.substring(queueUrl.lastIndexOf('/') + 1);
+    }
+
+    public void incReceived(String queue) {
+        queueCounter("dtp_sqs_messages_received_total", "Number of SQS messages received by worker", queue).increment();
+    }
+
+    public void incDeleted(String queue) {
+        queueCounter("dtp_sqs_messages_deleted_total", "Number of SQS messages deleted by worker", queue).increment();
+    }
+
+    public void observeReceive(String queue, int messages) {
+        DistributionSummary.builder("dtp_sqs_messages_per_receive")
+                .description("Messages returned per ReceiveMessage call")
+                .serviceLevelObjectives(0, 1, 2, 5, 10)
+                .tag("queue", queue)
+                .register(registry)
+                .record(messages);
+        if (messages == 0) {
+            queueCounter("dtp_sqs_empty_receives_total", "Number of ReceiveMessage calls that returned no messages", queue).increment();
+        }
+    }
+
+    public void incDeleteFailed(String queue) {
+        queueCounter("dtp_sqs_delete_failed_total",
+                "Number of SQS deletes (acks) that were dropped after a rejected or exhausted DeleteMessageBatch entry", queue).increment();
+    }
+
+    public void incVisibilityExtended(String queue) {
+        queueCounter("dtp_sqs_visibility_extensions_total",
+                "Number of visibility-timeout extensions sent for long-running tasks", queue).increment();
+    }
+
+    public void incVisibilityExtendFailed(String queue) {
+        queueCounter("dtp_sqs_visibility_extension_failed_total",
+                "Number of visibility-timeout extensions that failed (message may be redelivered)", queue).increment();
+    }
+
+    public void incRetriedInPlace(String queue) {
+        queueCounter("dtp_sqs_retries_in_place_total",
+                "Number of failed tasks retried by delaying the same SQS message instead of re-sending it", queue).increment();
+    }
+
+    private Counter queueCounter(String name, String description, String queue) {
+        return Counter.builder(name).description(description).tag("queue", queue).register(registry);
+    }
+
+    public void observePrefetchWait(Duration wait) { sqsPrefetchWait.record(wait); }
+    public void incPrefetchExpired() { sqsPrefetchExpired.increment(); }
     public void incClaimFailed() { sqsClaimFailed.increment(); }
 
     public void incTasksProcessed() { tasksProcessed.increment(); }
@@ -78,4 +137,82 @@ public class TaskMetrics {
     public void incTasksFailed() { tasksFailed.increment(); }
     public void incTasksDeadLettered() { tasksDeadLettered.increment(); }
 
+    /** Number of SQS pollers currently calling ReceiveMessage on a queue (1..that queue's pollers). */
+    public <T> void registerActivePollers(String queue, T controller, ToDoubleFunction<T> active) {
+        Gauge.builder("dtp_sqs_active_pollers", controller, active)
+                .description("Number of SQS pollers currently calling ReceiveMessage")
+                .tag("queue", queue)
+                .register(registry);
+    }
+
+    /** Number of messages from a queue that are buffered or running on this node (0..max-in-flight). */
+    public <T> void registerQueueInFlight(String queue, T polledQueue, ToDoubleFunction<T> inFlight) {
+        Gauge.builder("dtp_sqs_queue_inflight", polledQueue, inFlight)
+                .description("Number of SQS messages from this queue that are prefetched or being processed on this node")
+                .tag("queue", queue)
+                .register(registry);
+    }
+
+    /** Number of messages currently being processed by the worker pool (0..concurrency). */
+    public <T> void registerWorkerInFlight(T worker, ToDoubleFunction<T> inFlight) {
+        Gauge.builder("dtp_sqs_worker_inflight", worker, inFlight)
+                .description("Number of SQS messages currently being processed by this node")
+                .register(registry);
+    }
+
+    /** Number of received messages waiting in the worker's prefetch buffer (0..prefetch). */
+    public <T> void registerPrefetchBuffer(T buffer, ToDoubleFunction<T> size) {
+        Gauge.builder("dtp_sqs_prefetch_buffer_size", buffer, size)
+                .description("Number of received SQS messages waiting for a worker on this node")
+                .register(registry);
+    }
+
+    public void incLeasesReclaimed(int n) {
+        Counter.builder("dtp_task_leases_reclaimed_total")
+                .description("Number of PROCESSING tasks taken back from workers whose lease ran out (or that restarted)")
+                .register(registry)
+                .increment(n);
+    }
+
+    public void incOutboxPublished(int n) {
+        Counter.builder("dtp_outbox_published_total")
+                .description("Number of outbox rows published to SQS and deleted")
+                .register(registry)
+                .increment(n);
+    }
+
+    public void incOutboxPublishFailed(int n) {
+        Counter.builder("dtp_outbox_publish_failed_total")
+                .description("Number of outbox rows that failed to publish (left for the next drain)")
+                .register(registry)
+                .increment(n);
+    }
+
+    /** Rows waiting in the task outbox. */
+    public <T> void registerOutboxSize(T outbox, ToDoubleFunction<T> size) {
+        Gauge.builder("dtp_outbox_size", outbox, size)
+                .description("Number of tasks in the outbox waiting to be published")
+                .register(registry);
+    }
+
+    /** Age of the oldest outbox row: how far behind the relay is. */
+    public <T> void registerOutboxLag(T outbox, ToDoubleFunction<T> lagSeconds) {
+        Gauge.builder("dtp_outbox_lag_seconds", outbox, lagSeconds)
+                .description("How long the most overdue row in the task outbox has been due")
+                .register(registry);
+    }
+
+    /** Claimed tasks held in memory until their scheduled_for (DueTaskEnqueuer's timing wheel). */
+    public <T> void registerEnqueueTimerSize(T timer, ToDoubleFunction<T> size) {
+        Gauge.builder("dtp_enqueuer_timer_size", timer, size)
+                .description("Number of claimed tasks waiting in the enqueuer's timing wheel for their due time")
+                .register(registry);
+    }
+
+    /** 1 while the enqueuer's send circuit breaker is open or probing, 0 when closed. */
+    public <T> void registerEnqueueCircuitOpen(T breaker, ToDoubleFunction<T> open) {
+        Gauge.builder("dtp_enqueuer_circuit_open", breaker, open)
+                .description("Whether DueTaskEnqueuer has stopped claiming because SQS sends keep failing")
+                .register(registry);
+    }
 }
@@ -1,14 +1,27 @@
 package com.siqiu.distributedtaskplatform.queue;
 
+import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
 import com.siqiu.distributedtaskplatform.repo.TaskEnqueueRepository;
+import com.siqiu.distributedtaskplatform.worker.WorkerIdentity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 @Component
-public class DueTaskEnqueuer {
+public class DueTaskEnqueuer implements DisposableBean {
 
     private static final Logger log = LoggerFactory.getLogger(DueTaskEnqueuer.class);
 
@@ -18,41 +31,262 @@ public class DueTaskEnqueuer {
     private final String queueMode;
     private final int batchSize;
     private final long enqueueLockSeconds;
+    private final long lookaheadSeconds;
+    private final int partitions;
+    private final ExecutorService partitionPool; // null = single claim per tick, no partitioning
+    private final String nodeId;
+    private final long membershipTtlSeconds;
+    private final long membershipRefreshMs;
+    private volatile List<Integer> ownedPartitions = List.of();
+    private volatile long membershipRefreshedAtMs = Long.MIN_VALUE;
+    private final EnqueuerSchedule schedule;
+    private final DueTaskTimer timer; // null = not-yet-due tasks go out right away with DelaySeconds
+    private final SendCircuitBreaker breaker;
+    private final Thread loop; // null = autostart off (tests call tick() directly)
+    private volatile boolean running = true;
+
+    private record Claimed(int tasks, boolean full) {}
 
     public DueTaskEnqueuer(
             TaskEnqueueRepository enqueueRepo,
             TaskQueueClient queueClient,
+            TaskMetrics metrics,
+            WorkerIdentity identity,
             @Value("${dtp.queue.mode:sqs}") String queueMode,
             @Value("${dtp.enqueuer.batch-size:50}") int batchSize,
-            @Value("${dtp.enqueuer.enqueue-lock-seconds:30}") long enqueueLockSeconds
+            @Value("${dtp.enqueuer.enqueue-lock-seconds:30}") long enqueueLockSeconds,
+            @Value("${dtp.enqueuer.lookahead-seconds:30}") long lookaheadSeconds,
+            @Value("${dtp.enqueuer.partitions:1}") int partitions,
+            @Value("${dtp.enqueuer.threads:4}") int threads,
+            @Value("${dtp.enqueuer.membership.ttl-seconds:15}") long membershipTtlSeconds,
+            @Value("${dtp.enqueuer.membership.refresh-ms:1000}") long membershipRefreshMs,
+            @Value("${dtp.enqueuer.min-delay-ms:10}") long minDelayMs,
+            @Value("${dtp.enqueuer.max-delay-ms:5000}") long maxDelayMs,
+            @Value("${dtp.enqueuer.autostart:true}") boolean autoStart,
+            @Value("${dtp.enqueuer.timer.enabled:true}") boolean timerEnabled,
+            @Value("${dtp.enqueuer.timer.tick-ms:5}") long timerTickMs,
+            @Value("${dtp.enqueuer.breaker.failure-threshold:3}") int breakerFailureThreshold,
+            @Value("${dtp.enqueuer.breaker.open-ms:1000}") long breakerOpenMs,
+            @Value("${dtp.enqueuer.breaker.max-open-ms:30000}") long breakerMaxOpenMs
     ) {
         this.enqueueRepo = enqueueRepo;
         this.queueClient = queueClient;
         this.queueMode = queueMode;
         this.batchSize = batchSize;
         this.enqueueLockSeconds = enqueueLockSeconds;
+        // claim up to this far ahead (held in the timer, or sent with DelaySeconds, which caps at 15 minutes)
+        this.lookaheadSeconds = Math.max(0, Math.min(lookaheadSeconds, SqsTaskQueueClient.MAX_DELAY_SECONDS));
+        this.partitions = Math.max(1, Math.min(partitions, TaskEnqueueRepository.ENQUEUE_BUCKETS));
+        this.nodeId = identity.id();
+        this.membershipTtlSeconds = Math.max(1, membershipTtlSeconds);
+        this.membershipRefreshMs = Math.max(0, membershipRefreshMs);
+        if (this.partitions > 1) {
+            AtomicInteger n = new AtomicInteger();
+            this.partitionPool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, this.partitions)), r -> {
+                Thread t = new Thread(r, "enqueue-partition-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.partitionPool = null;
+        }
+        this.schedule = new EnqueuerSchedule(minDelayMs, maxDelayMs);
+        this.breaker = new SendCircuitBreaker(breakerFailureThreshold, breakerOpenMs, breakerMaxOpenMs);
+        metrics.registerEnqueueCircuitOpen(breaker, b -> b.state() == SendCircuitBreaker.State.CLOSED ? 0 : 1);
+
+        boolean background = autoStart && "sqs".equalsIgnoreCase(queueMode);
+        if (background && timerEnabled && this.lookaheadSeconds > 0) {
+            this.timer = new DueTaskTimer(timerTickMs, this::send);
+            metrics.registerEnqueueTimerSize(timer, DueTaskTimer::size);
+        } else {
+            this.timer = null;
+        }
+
+        // Start background loop only if enabled (and only sqs mode has anything to enqueue)
+        if (background) {
+            this.loop = Thread.ofPlatform().name("due-task-enqueuer").daemon(true).unstarted(this::runLoop);
+            this.loop.start();
+        } else {
+            this.loop = null;
+        }
     }
 
     /**
-     * Runs frequently; only does work in sqs mode.
-     * You can tune delay; start with 1s.
+     * A task became ENQUEUED (TaskDueListener relays the NOTIFY). Tasks due within the lookahead
+     * are claimable now; later ones wake us that much before they're due.
      */
-    @Scheduled(fixedDelayString = "${dtp.enqueuer.fixed-delay-ms:1000}")
-    public void tick() {
-        if (!"sqs".equalsIgnoreCase(queueMode)) return;
+    public void onTaskDue(long scheduledForEpochMs) {
+        schedule.wakeAt(scheduledForEpochMs - lookaheadSeconds * 1000);
+    }
 
-        var due = enqueueRepo.claimDueForEnqueue(batchSize, enqueueLockSeconds);
-        if (due.isEmpty()) return;
+    /**
+     * Takes a task this node already owns (enqueue-locked past its scheduled_for) that isn't due yet
+     * into the timer, so it goes out at scheduled_for; OutboxRelay hands new future tasks over this
+     * way. Returns false if there's no timer or the task is already due: send it now.
+     */
+    boolean holdUntilDue(TaskEnqueueRepository.TaskToEnqueue task) {
+        return timer != null && timer.schedule(task);
+    }
+
+    /** Claim right away, e.g. after the listener reconnects and may have missed notifications. */
+    public void wakeNow() {
+        schedule.wakeAt(0);
+    }
 
-        for (var task : due) {
-            long scheduledEpochMs = task.scheduledFor() == null ? 0L : task.scheduledFor().toEpochMilli();
+    private void runLoop() {
+        log.info("Due task enqueuer started. batchSize={} partitions={} nodeId={}", batchSize, partitions, nodeId);
+        while (running) {
+            long delayMs;
             try {
-                queueClient.enqueueTask(String.valueOf(task.id()), scheduledEpochMs);
+                long blockedMs = breaker.remainingOpenMs();
+                if (blockedMs > 0) {
+                    // SQS is failing: don't claim (and then unlock) rows we can't send
+                    delayMs = blockedMs;
+                } else {
+                    Claimed claimed = runOnce();
+                    delayMs = schedule.afterClaim(claimed.tasks(), claimed.full());
+                }
             } catch (Exception e) {
-                // If enqueue failed, release lock so next tick retries quickly.
-                log.error("Failed to enqueue taskId={}. Releasing enqueue lock.", task.id(), e);
-                enqueueRepo.releaseEnqueueLock(task.id());
+                log.error("Enqueuer tick failed", e);
+                delayMs = schedule.afterError();
             }
+            try {
+                schedule.await(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * One claim-and-publish pass; only does work in sqs mode.
+     * The background loop calls this; tests call it directly with autostart off.
+     */
+    public void tick() {
+        runOnce();
+    }
+
+    private Claimed runOnce() {
+        if (!"sqs".equalsIgnoreCase(queueMode)) return new Claimed(0, false);
+        if (!breaker.allowClaim()) return new Claimed(0, false);
+        try {
+            return claimAndPublish();
+        } finally {
+            breaker.endTick();
+        }
+    }
+
+    private Claimed claimAndPublish() {
+
+        if (partitionPool == null) {
+            int claimed = publish(enqueueRepo.claimDueForEnqueue(batchSize, enqueueLockSeconds, lookaheadSeconds));
+            return new Claimed(claimed, claimed >= batchSize);
+        }
+
+        // Only this node's share of the partitions, {threads} at a time. Right after a node joins or
+        // leaves, a partition another node still claims comes back empty straight away (advisory lock).
+        List<Integer> order = new ArrayList<>(ownedPartitions());
+        Collections.shuffle(order);
+        List<CompletableFuture<Integer>> runs = new ArrayList<>(order.size());
+        for (int partition : order) {
+            runs.add(CompletableFuture.supplyAsync(() -> enqueuePartition(partition), partitionPool));
+        }
+        CompletableFuture.allOf(runs.toArray(CompletableFuture[]::new)).join();
+
+        int total = 0;
+        boolean full = false;
+        for (CompletableFuture<Integer> run : runs) {
+            int claimed = run.join();
+            total += claimed;
+            full |= claimed >= batchSize;
+        }
+        return new Claimed(total, full);
+    }
+
+    /** This node's partitions: every k-th one, k = live nodes, offset by our place among them. */
+    private List<Integer> ownedPartitions() {
+        long nowMs = System.currentTimeMillis();
+        if (nowMs - membershipRefreshedAtMs >= membershipRefreshMs) {
+            ownedPartitions = partitionsOf(enqueueRepo.enqueuerMembers(nodeId, membershipTtlSeconds), nodeId, partitions);
+            membershipRefreshedAtMs = nowMs;
+        }
+        return ownedPartitions;
+    }
+
+    static List<Integer> partitionsOf(List<String> members, String nodeId, int partitions) {
+        int index = members.indexOf(nodeId);
+        if (index < 0) {
+            // not (yet) visible as a member: claim everything, the advisory locks keep it safe
+            return IntStream.range(0, partitions).boxed().toList();
+        }
+        return IntStream.range(0, partitions)
+                .filter(p -> p % members.size() == index)
+                .boxed()
+                .toList();
+    }
+
+    private int enqueuePartition(int partition) {
+        try {
+            return publish(enqueueRepo.claimDueForEnqueueInPartition(
+                    partition, partitions, batchSize, enqueueLockSeconds, lookaheadSeconds));
+        } catch (Exception e) {
+            // one bad partition must not stop the others; its claimed tasks unlock after the lock TTL
+            log.error("Enqueue failed for partition={}/{}", partition, partitions, e);
+            return 0;
+        }
+    }
+
+    /** Sends the claimed tasks (or hands not-yet-due ones to the timer); returns how many were claimed. */
+    private int publish(List<TaskEnqueueRepository.TaskToEnqueue> due) {
+        if (due.isEmpty()) return 0;
+
+        List<TaskEnqueueRepository.TaskToEnqueue> sendNow = timer == null
+                ? due
+                : due.stream().filter(task -> !timer.schedule(task)).toList();
+        send(sendNow);
+        return due.size();
+    }
+
+    private void send(List<TaskEnqueueRepository.TaskToEnqueue> due) {
+        if (due.isEmpty()) return;
+
+        List<EnqueueRequest> requests = due.stream()
+                .map(task -> new EnqueueRequest(task.id(), task.type(), task.priority(),
+                        task.scheduledFor() == null ? 0L : task.scheduledFor().toEpochMilli()))
+                .toList();
+
+        // One batched publish (SendMessageBatch in sqs mode); only the tasks that didn't go out come back
+        Set<Long> failed;
+        try {
+            failed = queueClient.enqueueBatch(requests).join();
+        } catch (Exception e) {
+            log.error("Batch enqueue failed. Releasing all {} enqueue locks.", requests.size(), e);
+            failed = requests.stream().map(EnqueueRequest::taskId).collect(Collectors.toSet());
+        }
+
+        breaker.record(requests.size() - failed.size(), failed.size());
+
+        // If enqueue failed, release the locks (one UPDATE) so a later tick retries quickly.
+        if (!failed.isEmpty()) {
+            log.error("Failed to enqueue {} of {} tasks. Releasing their enqueue locks. taskIds={}",
+                    failed.size(), requests.size(), failed);
+            enqueueRepo.releaseEnqueueLocks(failed);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        if (loop != null) loop.interrupt();
+        if (partitionPool != null) {
+            partitionPool.shutdownNow();
+            // hand our partitions to the other nodes now rather than after the membership TTL
+            enqueueRepo.leaveEnqueuerMembers(nodeId);
+        }
+        if (timer != null) {
+            // unsent timed tasks: let another node claim them now rather than after their lock runs out
+            enqueueRepo.releaseEnqueueLocks(timer.stop().stream().map(TaskEnqueueRepository.TaskToEnqueue::id).toList());
         }
     }
 }
@@ -0,0 +1,114 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import com.siqiu.distributedtaskplatform.repo.TaskEnqueueRepository.TaskToEnqueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Holds claimed tasks that aren't due yet and hands them to {fire} at their scheduled_for
+ * (within one tick), instead of sending them early with SQS DelaySeconds, which only has
+ * whole-second resolution.
+ *
+ * The tasks stay enqueue-locked in the DB until scheduled_for + lock (see claimDueForEnqueue),
+ * which is what makes this node their owner. If the node dies, the lock runs out and another
+ * node re-reads them from the DB.
+ */
+class DueTaskTimer {
+
+    private static final Logger log = LoggerFactory.getLogger(DueTaskTimer.class);
+
+    private static final int WHEEL_SIZE = 256;
+
+    private final long tickMs;
+    private final Consumer<List<TaskToEnqueue>> fire;
+    private final TimingWheel<TaskToEnqueue> wheel;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition added = lock.newCondition();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    DueTaskTimer(long tickMs, Consumer<List<TaskToEnqueue>> fire) {
+        this.tickMs = tickMs;
+        this.fire = fire;
+        this.wheel = new TimingWheel<>(tickMs, WHEEL_SIZE, System.currentTimeMillis());
+        this.thread = Thread.ofPlatform().name("due-task-timer").daemon(true).unstarted(this::run);
+        this.thread.start();
+    }
+
+    /** @return false if the task is already due (or has no due time): send it now. */
+    boolean schedule(TaskToEnqueue task) {
+        if (task.scheduledFor() == null) return false;
+        lock.lock();
+        try {
+            boolean held = wheel.add(task, task.scheduledFor().toEpochMilli());
+            if (held) added.signal();
+            return held;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return wheel.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        List<TaskToEnqueue> due = new ArrayList<>();
+        while (running) {
+            try {
+                lock.lock();
+                try {
+                    // nothing scheduled: don't tick
+                    while (running && wheel.size() == 0) {
+                        added.await();
+                    }
+                    wheel.advanceTo(System.currentTimeMillis(), due);
+                } finally {
+                    lock.unlock();
+                }
+                if (!due.isEmpty()) {
+                    fireQuietly(List.copyOf(due));
+                    due.clear();
+                }
+                TimeUnit.MILLISECONDS.sleep(tickMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void fireQuietly(List<TaskToEnqueue> tasks) {
+        try {
+            fire.accept(tasks);
+        } catch (Exception e) {
+            // never let the timer thread die; the tasks' enqueue locks expire and they get re-claimed
+            log.error("Sending {} timed tasks failed", tasks.size(), e);
+        }
+    }
+
+    /** Stops the timer and returns the tasks it was still holding. */
+    List<TaskToEnqueue> stop() {
+        running = false;
+        thread.interrupt();
+        lock.lock();
+        try {
+            return wheel.drainAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+/** One task to publish: type and priority pick the queue (see SqsQueueRouting). */
+public record EnqueueRequest(long taskId, String type, int priority, long scheduledForEpochMs) {}
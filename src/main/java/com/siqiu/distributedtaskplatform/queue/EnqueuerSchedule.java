@@ -0,0 +1,107 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides when DueTaskEnqueuer claims next.
+ *
+ * - A full claim means more is waiting: claim again right away.
+ * - A partial claim drained the backlog: poll again after minDelay.
+ * - An empty claim doubles the delay, up to maxDelay, so an idle node barely touches the DB.
+ *
+ * Independently of that, a NOTIFY from the tasks table (TaskDueListener) calls wakeAt() with the
+ * time the task becomes claimable, and await() returns as soon as that time comes.
+ */
+class EnqueuerSchedule {
+
+    private final long minDelayMs;
+    private final long maxDelayMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition woken = lock.newCondition();
+    private long idleDelayMs;
+    private long wakeAtMs = Long.MAX_VALUE; // earliest notified due time not yet acted on
+
+    EnqueuerSchedule(long minDelayMs, long maxDelayMs) {
+        if (minDelayMs < 1 || maxDelayMs < minDelayMs) {
+            throw new IllegalArgumentException("need 1 <= minDelayMs <= maxDelayMs");
+        }
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.idleDelayMs = minDelayMs;
+    }
+
+    /** Delay before the next claim, given what the last one returned. */
+    long afterClaim(int claimed, boolean full) {
+        lock.lock();
+        try {
+            if (full) {
+                idleDelayMs = minDelayMs;
+                return 0;
+            }
+            if (claimed > 0) {
+                idleDelayMs = minDelayMs;
+                return minDelayMs;
+            }
+            long delay = idleDelayMs;
+            idleDelayMs = Math.min(maxDelayMs, idleDelayMs * 2);
+            return delay;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** A claim failed (DB down): don't retry in a tight loop. */
+    long afterError() {
+        return maxDelayMs;
+    }
+
+    /** A task becomes claimable at {epochMs} (now or earlier = right away). */
+    void wakeAt(long epochMs) {
+        lock.lock();
+        try {
+            if (epochMs < wakeAtMs) {
+                wakeAtMs = epochMs;
+                woken.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sleeps for {delayMs}, or until a notified due time arrives, whichever is first.
+     *
+     * @return true if a notification cut the wait short
+     */
+    boolean await(long delayMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + delayMs;
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (wakeAtMs <= now) {
+                    wakeAtMs = Long.MAX_VALUE;
+                    // there's work again: start polling from the short end
+                    idleDelayMs = minDelayMs;
+                    return true;
+                }
+                if (now >= deadline) return false;
+                woken.await(Math.min(deadline, wakeAtMs) - now, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long idleDelayMs() {
+        lock.lock();
+        try {
+            return idleDelayMs;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
+import com.siqiu.distributedtaskplatform.repo.TaskEnqueueRepository.TaskToEnqueue;
+import com.siqiu.distributedtaskplatform.repo.TaskOutboxRepository;
+import com.siqiu.distributedtaskplatform.repo.TaskOutboxRepository.DrainResult;
+import com.siqiu.distributedtaskplatform.repo.TaskOutboxRepository.OutboxEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Publishes the task outbox to SQS: claims batches of rows (SendMessageBatch through
+ * TaskQueueClient.enqueueBatch) and deletes the ones that went out. The claim commits before the
+ * send, so no transaction or row lock is held while SQS is called (TaskOutboxRepository.drain).
+ * Rows that aren't due yet (runAt / delaySeconds within the lookahead) go to DueTaskEnqueuer's
+ * timer instead and are sent at their scheduled_for; the task's enqueue lock, taken at create
+ * time, makes this node their owner.
+ *
+ * Wakes right after a local TaskService.create commits (wakeNow); other nodes' rows are picked up
+ * by the same adaptive poll DueTaskEnqueuer uses. Only runs in sqs mode.
+ */
+@Component
+public class OutboxRelay implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private final TaskOutboxRepository outbox;
+    private final TaskQueueClient queueClient;
+    private final DueTaskEnqueuer enqueuer;
+    private final TaskMetrics metrics;
+    private final String queueMode;
+    private final int batchSize;
+    private final long lookaheadSeconds;
+    private final EnqueuerSchedule schedule;
+    private final Thread loop; // null = autostart off (tests call drainOnce() directly)
+    private volatile boolean running = true;
+
+    public OutboxRelay(
+            TaskOutboxRepository outbox,
+            TaskQueueClient queueClient,
+            DueTaskEnqueuer enqueuer,
+            TaskMetrics metrics,
+            @Value("${dtp.queue.mode:sqs}") String queueMode,
+            @Value("${dtp.outbox.batch-size:100}") int batchSize,
+            @Value("${dtp.enqueuer.lookahead-seconds:30}") long lookaheadSeconds,
+            @Value("${dtp.enqueuer.min-delay-ms:10}") long minDelayMs,
+            @Value("${dtp.enqueuer.max-delay-ms:5000}") long maxDelayMs,
+            @Value("${dtp.enqueuer.autostart:true}") boolean autoStart
+    ) {
+        this.outbox = outbox;
+        this.queueClient = queueClient;
+        this.enqueuer = enqueuer;
+        this.metrics = metrics;
+        this.queueMode = queueMode;
+        this.batchSize = batchSize;
+        this.lookaheadSeconds = Math.max(0, Math.min(lookaheadSeconds, SqsTaskQueueClient.MAX_DELAY_SECONDS));
+        this.schedule = new EnqueuerSchedule(minDelayMs, maxDelayMs);
+
+        if ("sqs".equalsIgnoreCase(queueMode)) {
+            metrics.registerOutboxSize(outbox, TaskOutboxRepository::size);
+            metrics.registerOutboxLag(outbox, TaskOutboxRepository::oldestAgeSeconds);
+        }
+
+        if (autoStart && "sqs".equalsIgnoreCase(queueMode)) {
+            this.loop = Thread.ofPlatform().name("outbox-relay").daemon(true).unstarted(this::runLoop);
+            this.loop.start();
+        } else {
+            this.loop = null;
+        }
+    }
+
+    /** A task was just appended to the outbox on this node: publish without waiting for the poll. */
+    public void wakeNow() {
+        schedule.wakeAt(0);
+    }
+
+    private void runLoop() {
+        log.info("Outbox relay started. batchSize={}", batchSize);
+        while (running) {
+            long delayMs;
+            try {
+                DrainResult result = drainOnce();
+                // nothing sent at all (SQS down): back off instead of re-trying the same rows hot
+                delayMs = result.claimed() > 0 && result.failed() == result.claimed()
+                        ? schedule.afterError()
+                        : schedule.afterClaim(result.claimed(), result.claimed() >= batchSize);
+            } catch (Exception e) {
+                log.error("Outbox drain failed", e);
+                delayMs = schedule.afterError();
+            }
+            try {
+                schedule.await(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /** Publishes one batch; rows that fail stay in the outbox for the next drain. */
+    public DrainResult drainOnce() {
+        if (!"sqs".equalsIgnoreCase(queueMode)) return new DrainResult(0, 0);
+
+        DrainResult result = outbox.drain(batchSize, lookaheadSeconds, this::publish);
+        if (result.claimed() > result.failed()) metrics.incOutboxPublished(result.claimed() - result.failed());
+        if (result.failed() > 0) metrics.incOutboxPublishFailed(result.failed());
+        return result;
+    }
+
+    private Set<Long> publish(List<OutboxEntry> entries) {
+        // not due yet: the timer sends them at scheduled_for (DelaySeconds would round up to the second)
+        List<EnqueueRequest> requests = entries.stream()
+                .filter(e -> !enqueuer.holdUntilDue(new TaskToEnqueue(e.taskId(), e.type(), e.priority(), e.scheduledFor())))
+                .map(e -> new EnqueueRequest(e.taskId(), e.type(), e.priority(),
+                        e.scheduledFor() == null ? 0L : e.scheduledFor().toEpochMilli()))
+                .toList();
+        if (requests.isEmpty()) return Set.of();
+        Set<Long> failed = queueClient.enqueueBatch(requests).join();
+        if (!failed.isEmpty()) {
+            log.warn("Outbox publish failed for {} of {} tasks; leaving them in the outbox. taskIds={}",
+                    failed.size(), requests.size(), failed);
+        }
+        return failed;
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        if (loop != null) loop.interrupt();
+    }
+}
@@ -0,0 +1,99 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops DueTaskEnqueuer from claiming while SQS is rejecting sends, so an outage doesn't turn into
+ * lock/unlock writes on the same rows every tick.
+ *
+ * - CLOSED: claim normally. {failureThreshold} batches in a row where every send failed open it.
+ * - OPEN: no claims for openMs.
+ * - HALF_OPEN: one tick (the probe) may claim. A batch with any successful send closes the breaker;
+ *   a fully failed one reopens it for twice as long (up to maxOpenMs). A probe that sent nothing
+ *   (nothing was due) lets the next tick probe again.
+ */
+class SendCircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long baseOpenMs;
+    private final long maxOpenMs;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMs;
+    private long openUntilMs;
+    private boolean probing;
+
+    SendCircuitBreaker(int failureThreshold, long openMs, long maxOpenMs) {
+        this(failureThreshold, openMs, maxOpenMs, System::currentTimeMillis);
+    }
+
+    SendCircuitBreaker(int failureThreshold, long openMs, long maxOpenMs, LongSupplier clock) {
+        if (failureThreshold < 1 || openMs < 1 || maxOpenMs < openMs) {
+            throw new IllegalArgumentException("need failureThreshold >= 1 and 1 <= openMs <= maxOpenMs");
+        }
+        this.failureThreshold = failureThreshold;
+        this.baseOpenMs = openMs;
+        this.maxOpenMs = maxOpenMs;
+        this.openMs = openMs;
+        this.clock = clock;
+    }
+
+    /** May this tick claim? In HALF_OPEN only one caller gets true until the probe reports back. */
+    synchronized boolean allowClaim() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.getAsLong() < openUntilMs) return false;
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default: // HALF_OPEN
+                if (probing) return false;
+                probing = true;
+                return true;
+        }
+    }
+
+    /** Outcome of one send batch. */
+    synchronized void record(int sent, int failed) {
+        if (sent > 0) {
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            openMs = baseOpenMs;
+            probing = false;
+        } else if (failed > 0) {
+            if (state == State.HALF_OPEN) {
+                openMs = Math.min(maxOpenMs, openMs * 2);
+                open();
+            } else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+                open();
+            }
+        }
+    }
+
+    /** End of a tick: a probe that never sent anything doesn't count either way. */
+    synchronized void endTick() {
+        if (state == State.HALF_OPEN) probing = false;
+    }
+
+    /** How long claims stay blocked (0 when they're allowed). */
+    synchronized long remainingOpenMs() {
+        return state == State.OPEN ? Math.max(0, openUntilMs - clock.getAsLong()) : 0;
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntilMs = clock.getAsLong() + openMs;
+        consecutiveFailures = 0;
+        probing = false;
+    }
+}
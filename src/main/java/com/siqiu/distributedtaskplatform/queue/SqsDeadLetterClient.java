@@ -3,6 +3,7 @@ package com.siqiu.distributedtaskplatform.queue;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
 import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
@@ -10,11 +11,17 @@ import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 public class SqsDeadLetterClient implements DeadLetterClient {
 
     private final SqsClient sqs;
+    private final SqsAsyncClient sqsAsync; // null = sync only
     private final String dlqUrl;
     private final ObjectMapper mapper;
 
     public SqsDeadLetterClient(SqsClient sqs, @Value("${dtp.sqs.dlqName}") String dlqName, ObjectMapper mapper) {
+        this(sqs, null, dlqName, mapper);
+    }
+
+    public SqsDeadLetterClient(SqsClient sqs, SqsAsyncClient sqsAsync, String dlqName, ObjectMapper mapper) {
         this.sqs = sqs;
+        this.sqsAsync = sqsAsync;
         this.dlqUrl = sqs.getQueueUrl(GetQueueUrlRequest.builder().queueName(dlqName).build()).queueUrl();
         this.mapper = mapper;
     }
@@ -28,9 +35,15 @@ public class SqsDeadLetterClient implements DeadLetterClient {
             throw new RuntimeException("Failed to serialize DeadTaskEvent", e);
         }
 
-        sqs.sendMessage(SendMessageRequest.builder()
+        SendMessageRequest req = SendMessageRequest.builder()
                 .queueUrl(dlqUrl)
                 .messageBody(body)
-                .build());
+                .build();
+        if (sqsAsync != null) {
+            // callers run on worker (virtual) threads; join() parks the virtual thread, not a carrier
+            sqsAsync.sendMessage(req).join();
+        } else {
+            sqs.sendMessage(req);
+        }
     }
 }
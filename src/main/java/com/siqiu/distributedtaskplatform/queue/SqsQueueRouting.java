@@ -0,0 +1,84 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-task-type SQS queues, so a flood of one slow type can't sit in front of everything else.
+ *
+ * <pre>
+ * dtp.sqs.routing.types.report=dtp-task-queue-report       # task type -> queue name
+ * dtp.sqs.routing.queues.dtp-task-queue-report.weight=1     # share of receive capacity when busy
+ * dtp.sqs.routing.queues.dtp-task-queue-report.max-in-flight=4
+ * </pre>
+ *
+ * Types without an entry go to dtp.sqs.queueName. Queues without settings get weight 1 and no cap.
+ *
+ * Priorities: with high-priority-queue set, tasks with priority >= high-priority-threshold go there
+ * whatever their type. Workers consume it by weight like any other queue, or, with strict-priority,
+ * the other queues' pollers hold off while it still has a backlog.
+ */
+@ConfigurationProperties(prefix = "dtp.sqs.routing")
+public record SqsQueueRouting(
+        Map<String, String> types,
+        Map<String, QueueSettings> queues,
+        String highPriorityQueue,
+        @DefaultValue("1") int highPriorityThreshold,
+        boolean strictPriority
+) {
+
+    /**
+     * @param weight      relative number of pollers (and so buffer slots under contention) for the queue
+     * @param maxInFlight messages from this queue buffered or running on one node at a time; 0 = no cap
+     */
+    public record QueueSettings(@DefaultValue("1") int weight, @DefaultValue("0") int maxInFlight) {
+
+        public static final QueueSettings DEFAULT = new QueueSettings(1, 0);
+
+        public QueueSettings {
+            if (weight < 1) {
+                throw new IllegalArgumentException("queue weight must be >= 1");
+            }
+            if (maxInFlight < 0) {
+                throw new IllegalArgumentException("queue max-in-flight must be >= 0");
+            }
+        }
+    }
+
+    public SqsQueueRouting {
+        types = types == null ? Map.of() : Map.copyOf(types);
+        queues = queues == null ? Map.of() : Map.copyOf(queues);
+        if (highPriorityQueue != null && highPriorityQueue.isBlank()) {
+            highPriorityQueue = null;
+        }
+    }
+
+    /** No per-type queues: everything goes through the default queue. */
+    public static SqsQueueRouting none() {
+        return new SqsQueueRouting(Map.of(), Map.of(), null, 1, false);
+    }
+
+    public String queueFor(String type, int priority, String defaultQueueName) {
+        if (highPriorityQueue != null && priority >= highPriorityThreshold) return highPriorityQueue;
+        if (type == null) return defaultQueueName;
+        return types.getOrDefault(type, defaultQueueName);
+    }
+
+    public QueueSettings settingsFor(String queueName) {
+        return queues.getOrDefault(queueName, QueueSettings.DEFAULT);
+    }
+
+    /** Every queue a worker has to consume: the default one first, then the routed ones. */
+    public Set<String> queueNames(String defaultQueueName) {
+        Set<String> names = new LinkedHashSet<>();
+        names.add(defaultQueueName);
+        if (highPriorityQueue != null) names.add(highPriorityQueue);
+        names.addAll(types.values());
+        names.addAll(queues.keySet());
+        return names;
+    }
+}
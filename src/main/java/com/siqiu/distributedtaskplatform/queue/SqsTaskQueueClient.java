@@ -7,32 +7,199 @@ import org.springframework.context.annotation.Bean;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
 import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class SqsTaskQueueClient implements TaskQueueClient {
+public class SqsTaskQueueClient implements TaskQueueClient, AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(TaskWorker.class);
 
+    // SQS limit for DelaySeconds (15 minutes)
+    static final int MAX_DELAY_SECONDS = 900;
+
+    // SQS limit for entries per SendMessageBatch
+    static final int MAX_BATCH_ENTRIES = 10;
+
+    // Blocking SendMessageBatch calls in flight at once with the sync client (a default 50-task claim = 5 calls)
+    static final int SYNC_SEND_PARALLELISM = 5;
+
     private final SqsClient sqs;
-    private final String queueUrl;
+    private final SqsAsyncClient sqsAsync; // null = sync only
+    private final ExecutorService syncSender; // null with the async client
+    private final String queueUrl; // default queue
+    private final Map<String, String> queueUrlByName = new HashMap<>();
+    private final SqsQueueRouting routing;
+    private final String queueName;
 
     public SqsTaskQueueClient(SqsClient sqs, String queueName) {
+        this(sqs, null, queueName, SqsQueueRouting.none());
+    }
+
+    public SqsTaskQueueClient(SqsClient sqs, SqsAsyncClient sqsAsync, String queueName) {
+        this(sqs, sqsAsync, queueName, SqsQueueRouting.none());
+    }
+
+    public SqsTaskQueueClient(SqsClient sqs, SqsAsyncClient sqsAsync, String queueName, SqsQueueRouting routing) {
         this.sqs = sqs;
-        this.queueUrl = sqs.getQueueUrl(software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest.builder()
+        this.sqsAsync = sqsAsync;
+        if (sqsAsync == null) {
+            AtomicInteger n = new AtomicInteger();
+            this.syncSender = Executors.newFixedThreadPool(SYNC_SEND_PARALLELISM, r -> {
+                Thread t = new Thread(r, "sqs-batch-send-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.syncSender = null;
+        }
+        this.routing = routing;
+        this.queueName = queueName;
+        this.queueUrl = resolveQueueUrl(queueName);
+        queueUrlByName.put(queueName, queueUrl);
+        // resolve every routed queue once up front
+        for (String name : routing.queueNames(queueName)) {
+            queueUrlByName.computeIfAbsent(name, this::resolveQueueUrl);
+        }
+    }
+
+    private String resolveQueueUrl(String queueName) {
+        return sqs.getQueueUrl(GetQueueUrlRequest.builder()
                 .queueName(queueName)
                 .build()).queueUrl();
     }
 
+    private String queueUrlFor(EnqueueRequest request) {
+        return queueUrlByName.get(routing.queueFor(request.type(), request.priority(), queueName));
+    }
+
     @Override
     public void enqueueTask(String taskId, long scheduledForEpochMs) {
-        log.info("enqueue_task taskId={} scheduledFor={}", taskId, scheduledForEpochMs);
-        sqs.sendMessage(software.amazon.awssdk.services.sqs.model.SendMessageRequest.builder()
-                .queueUrl(queueUrl)
+        send(queueUrl, taskId, scheduledForEpochMs);
+    }
+
+    @Override
+    public void enqueue(EnqueueRequest request) {
+        send(queueUrlFor(request), String.valueOf(request.taskId()), request.scheduledForEpochMs());
+    }
+
+    private void send(String url, String taskId, long scheduledForEpochMs) {
+        int delaySeconds = delaySecondsUntil(scheduledForEpochMs, System.currentTimeMillis());
+        log.info("enqueue_task taskId={} scheduledFor={} delaySeconds={} queueUrl={}",
+                taskId, scheduledForEpochMs, delaySeconds, url);
+        sqs.sendMessage(SendMessageRequest.builder()
+                .queueUrl(url)
                 .messageBody(taskId)
+                .delaySeconds(delaySeconds)
                 .build());
     }
+
+    /**
+     * Tasks sent ahead of time (enqueuer lookahead) stay invisible until they're due. Rounded up so
+     * the message never shows up before scheduled_for (the claim would reject it); capped at the
+     * SQS maximum, so anything further out arrives early and waits for its claim to pass.
+     */
+    static int delaySecondsUntil(long scheduledForEpochMs, long nowMs) {
+        if (scheduledForEpochMs <= nowMs) return 0;
+        long seconds = (scheduledForEpochMs - nowMs + 999) / 1000;
+        return (int) Math.min(seconds, MAX_DELAY_SECONDS);
+    }
+
+    @Override
+    public CompletableFuture<Void> enqueueAsync(EnqueueRequest request) {
+        if (sqsAsync == null) {
+            return TaskQueueClient.super.enqueueAsync(request);
+        }
+        String url = queueUrlFor(request);
+        int delaySeconds = delaySecondsUntil(request.scheduledForEpochMs(), System.currentTimeMillis());
+        log.info("enqueue_task_async taskId={} scheduledFor={} delaySeconds={} queueUrl={}",
+                request.taskId(), request.scheduledForEpochMs(), delaySeconds, url);
+        return sqsAsync.sendMessage(SendMessageRequest.builder()
+                        .queueUrl(url)
+                        .messageBody(String.valueOf(request.taskId()))
+                        .delaySeconds(delaySeconds)
+                        .build())
+                .thenApply(resp -> null);
+    }
+
+    /**
+     * Groups the requests by target queue and sends them as SendMessageBatch calls of up to 10
+     * entries. With the async client all calls are in flight at once; with the sync client up to
+     * SYNC_SEND_PARALLELISM of them are, on a small pool. A failed call fails all of its entries;
+     * otherwise only the entries SQS reports as failed are returned.
+     */
+    @Override
+    public CompletableFuture<Set<Long>> enqueueBatch(List<EnqueueRequest> requests) {
+        Map<String, List<EnqueueRequest>> byQueue = new LinkedHashMap<>();
+        for (EnqueueRequest request : requests) {
+            byQueue.computeIfAbsent(queueUrlFor(request), url -> new ArrayList<>()).add(request);
+        }
+
+        Set<Long> failed = ConcurrentHashMap.newKeySet();
+        long nowMs = System.currentTimeMillis();
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
+        byQueue.forEach((url, queued) -> {
+            for (int from = 0; from < queued.size(); from += MAX_BATCH_ENTRIES) {
+                List<EnqueueRequest> chunk = queued.subList(from, Math.min(from + MAX_BATCH_ENTRIES, queued.size()));
+                calls.add(sendBatch(url, chunk, nowMs, failed));
+            }
+        });
+        return CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).thenApply(v -> failed);
+    }
+
+    private CompletableFuture<Void> sendBatch(String url, List<EnqueueRequest> chunk, long nowMs, Set<Long> failed) {
+        // task ids are unique within a claim, so they double as the batch entry ids
+        SendMessageBatchRequest request = SendMessageBatchRequest.builder()
+                .queueUrl(url)
+                .entries(chunk.stream()
+                        .map(r -> SendMessageBatchRequestEntry.builder()
+                                .id(String.valueOf(r.taskId()))
+                                .messageBody(String.valueOf(r.taskId()))
+                                .delaySeconds(delaySecondsUntil(r.scheduledForEpochMs(), nowMs))
+                                .build())
+                        .toList())
+                .build();
+        log.info("enqueue_batch size={} queueUrl={}", chunk.size(), url);
+
+        CompletableFuture<SendMessageBatchResponse> call = sqsAsync != null
+                ? sqsAsync.sendMessageBatch(request)
+                : CompletableFuture.supplyAsync(() -> sqs.sendMessageBatch(request), syncSender);
+
+        return call.handle((resp, err) -> {
+            if (err != null) {
+                log.warn("enqueue_batch_failed size={} queueUrl={}", chunk.size(), url, err);
+                chunk.forEach(r -> failed.add(r.taskId()));
+                return null;
+            }
+            for (BatchResultErrorEntry entry : resp.failed()) {
+                log.warn("enqueue_batch_entry_failed taskId={} code={} senderFault={} message={}",
+                        entry.id(), entry.code(), entry.senderFault(), entry.message());
+                failed.add(Long.parseLong(entry.id()));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        if (syncSender != null) syncSender.shutdown();
+    }
 }
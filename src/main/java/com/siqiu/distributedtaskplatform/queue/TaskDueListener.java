@@ -0,0 +1,102 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * LISTENs on the channel the tasks_notify_due trigger (V6) NOTIFYs when a task becomes ENQUEUED,
+ * and wakes DueTaskEnqueuer with the task's scheduled_for. The payload is only a hint: the
+ * enqueuer still claims through the DB, and its adaptive poll covers anything we miss while
+ * the connection is down.
+ *
+ * Holds one connection from the pool for as long as it runs (LISTEN is per session).
+ */
+@Component
+public class TaskDueListener implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskDueListener.class);
+
+    static final String CHANNEL = "dtp_task_due";
+    private static final int POLL_TIMEOUT_MS = 1000;
+    private static final long RECONNECT_BACKOFF_MS = 2000;
+
+    private final DataSource dataSource;
+    private final DueTaskEnqueuer enqueuer;
+    private final Thread thread; // null = not listening
+    private volatile boolean running = true;
+
+    public TaskDueListener(
+            DataSource dataSource,
+            DueTaskEnqueuer enqueuer,
+            @Value("${dtp.queue.mode:sqs}") String queueMode,
+            @Value("${dtp.enqueuer.autostart:true}") boolean autoStart,
+            @Value("${dtp.enqueuer.notify.enabled:true}") boolean enabled
+    ) {
+        this.dataSource = dataSource;
+        this.enqueuer = enqueuer;
+        if (enabled && autoStart && "sqs".equalsIgnoreCase(queueMode)) {
+            this.thread = Thread.ofPlatform().name("task-due-listener").daemon(true).unstarted(this::run);
+            this.thread.start();
+        } else {
+            this.thread = null;
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(true);
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LISTEN " + CHANNEL);
+                }
+                log.info("Listening for due tasks. channel={}", CHANNEL);
+                // anything NOTIFYed while we weren't listening is lost: claim once to catch up
+                enqueuer.wakeNow();
+
+                PGConnection pg = conn.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_TIMEOUT_MS);
+                    if (notifications == null) continue;
+                    for (PGNotification n : notifications) {
+                        enqueuer.onTaskDue(parseDueAt(n.getParameter()));
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) return;
+                log.warn("Task due listener lost its connection; reconnecting in {}ms", RECONNECT_BACKOFF_MS, e);
+                try {
+                    Thread.sleep(RECONNECT_BACKOFF_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Payload is scheduled_for in epoch ms; 0 / missing / garbage means "due now". */
+    static long parseDueAt(String payload) {
+        if (payload == null || payload.isBlank()) return 0L;
+        try {
+            return Long.parseLong(payload.trim());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+}
@@ -1,5 +1,53 @@
 package com.siqiu.distributedtaskplatform.queue;
 
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
 public interface TaskQueueClient {
+    /** Publishes to the default queue. */
     void enqueueTask(String taskId, long scheduledForEpochMs);
-}
\ No newline at end of file
+
+    /** Publishes to the queue for the task's type; clients without routing use the default queue. */
+    default void enqueue(EnqueueRequest request) {
+        enqueueTask(String.valueOf(request.taskId()), request.scheduledForEpochMs());
+    }
+
+    /**
+     * Non-blocking enqueue. Clients backed by an async SDK client complete the future from the
+     * SDK's I/O threads; the default just runs the blocking call.
+     */
+    default CompletableFuture<Void> enqueueAsync(EnqueueRequest request) {
+        try {
+            enqueue(request);
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Publishes a batch; completes with the ids of the tasks that did not go out (empty = all sent).
+     * Partial failure is a normal result, not an exception, so callers can retry just those tasks.
+     * The default sends them one by one through enqueueAsync.
+     */
+    default CompletableFuture<Set<Long>> enqueueBatch(List<EnqueueRequest> requests) {
+        Set<Long> failed = ConcurrentHashMap.newKeySet();
+        CompletableFuture<?>[] sends = new CompletableFuture<?>[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            EnqueueRequest request = requests.get(i);
+            CompletableFuture<Void> send;
+            try {
+                send = enqueueAsync(request);
+            } catch (Exception e) {
+                send = CompletableFuture.failedFuture(e);
+            }
+            sends[i] = send.exceptionally(e -> {
+                failed.add(request.taskId());
+                return null;
+            });
+        }
+        return CompletableFuture.allOf(sends).thenApply(v -> failed);
+    }
+}
@@ -0,0 +1,122 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel: O(1) add, and advancing the clock only touches the buckets it passes.
+ *
+ * Level 0 has {wheelSize} buckets of {tickMs}; anything further out than tickMs * wheelSize goes
+ * to an overflow wheel whose tick is the whole span of the level below (created on demand, as
+ * many levels as needed). When the clock crosses an overflow bucket's start, that bucket is
+ * cascaded down into the finer level.
+ *
+ * Items fire once their whole bucket is in the past, so never early and at most tickMs late.
+ * Not thread-safe; the owner synchronizes.
+ */
+class TimingWheel<T> {
+
+    private record Entry<T>(T item, long expirationMs) {}
+
+    private final long tickMs;
+    private final int wheelSize;
+    private final long intervalMs;
+    private final List<List<Entry<T>>> buckets;
+    private long currentTimeMs; // start of the oldest bucket that hasn't fired (multiple of tickMs)
+    private TimingWheel<T> overflow;
+    private int size; // items added through this level's public add (root only)
+
+    TimingWheel(long tickMs, int wheelSize, long startMs) {
+        if (tickMs < 1 || wheelSize < 2) {
+            throw new IllegalArgumentException("need tickMs >= 1 and wheelSize >= 2");
+        }
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.intervalMs = tickMs * wheelSize;
+        this.currentTimeMs = startMs - startMs % tickMs;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayList<>());
+        }
+    }
+
+    /** @return false if {expirationMs} has already passed: the caller should fire it now. */
+    boolean add(T item, long expirationMs) {
+        boolean added = addEntry(new Entry<>(item, expirationMs));
+        if (added) size++;
+        return added;
+    }
+
+    /** Moves the clock to {nowMs} and appends every item that came due to {due}. */
+    void advanceTo(long nowMs, List<T> due) {
+        while (currentTimeMs + tickMs <= nowMs) {
+            List<Entry<T>> fired = takeBucket(currentTimeMs);
+            for (Entry<T> e : fired) {
+                due.add(e.item());
+            }
+            size -= fired.size();
+            step();
+        }
+    }
+
+    /** Removes everything still waiting (e.g. on shutdown). */
+    List<T> drainAll() {
+        List<T> all = new ArrayList<>(size);
+        for (TimingWheel<T> level = this; level != null; level = level.overflow) {
+            for (List<Entry<T>> bucket : level.buckets) {
+                for (Entry<T> e : bucket) {
+                    all.add(e.item());
+                }
+                bucket.clear();
+            }
+        }
+        size = 0;
+        return all;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private boolean addEntry(Entry<T> e) {
+        if (e.expirationMs() < currentTimeMs) return false;
+        if (e.expirationMs() < currentTimeMs + intervalMs) {
+            bucketFor(e.expirationMs()).add(e);
+            return true;
+        }
+        if (overflow == null) {
+            overflow = new TimingWheel<>(intervalMs, wheelSize, currentTimeMs);
+        }
+        return overflow.addEntry(e);
+    }
+
+    private void step() {
+        currentTimeMs += tickMs;
+        // crossing a boundary of the level above: its bucket starting here now fits in this level
+        if (overflow != null && currentTimeMs % intervalMs == 0) {
+            for (Entry<T> e : overflow.take(currentTimeMs)) {
+                bucketFor(e.expirationMs()).add(e);
+            }
+        }
+    }
+
+    /** Advances this level to {startMs} (cascading from above as it goes) and empties that bucket. */
+    private List<Entry<T>> take(long startMs) {
+        while (currentTimeMs < startMs) {
+            step();
+        }
+        return takeBucket(startMs);
+    }
+
+    private List<Entry<T>> takeBucket(long startMs) {
+        List<Entry<T>> bucket = bucketFor(startMs);
+        if (bucket.isEmpty()) return List.of();
+        List<Entry<T>> taken = new ArrayList<>(bucket);
+        bucket.clear();
+        return taken;
+    }
+
+    private List<Entry<T>> bucketFor(long timeMs) {
+        return buckets.get((int) ((timeMs / tickMs) % wheelSize));
+    }
+}
@@ -1,22 +1,74 @@
 package com.siqiu.distributedtaskplatform.repo;
 
+import com.siqiu.distributedtaskplatform.task.TaskExecutionContext;
+import com.siqiu.distributedtaskplatform.task.TaskSnapshot;
+import com.siqiu.distributedtaskplatform.task.TaskStatus;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.sql.PreparedStatement;
 import java.sql.Timestamp;
 
 @Repository
 public class TaskClaimRepository {
 
     private final JdbcTemplate jdbc;
+    private final long leaseSeconds;
 
-    public TaskClaimRepository(JdbcTemplate jdbc) {
+    /**
+     * leaseSeconds: how long a claim holds without renewal (lease_expires_at). Workers renew it
+     * with renewLeases while they hold the task; TaskLeaseReaper reclaims it once it runs out.
+     */
+    public TaskClaimRepository(JdbcTemplate jdbc, @Value("${dtp.worker.lease-seconds:60}") long leaseSeconds) {
+        if (leaseSeconds < 1) {
+            throw new IllegalArgumentException("dtp.worker.lease-seconds must be >= 1");
+        }
         this.jdbc = jdbc;
+        this.leaseSeconds = leaseSeconds;
+    }
+
+    public long leaseSeconds() {
+        return leaseSeconds;
     }
 
     public record FailOutcome(boolean updated, boolean becameDead, int attemptCount, int maxAttempts) {}
 
+    // Columns every claim returns (see TaskExecutionContext)
+    private static final RowMapper<TaskExecutionContext> EXECUTION_CONTEXT = (rs, rowNum) -> {
+        Timestamp scheduledFor = rs.getTimestamp("scheduled_for");
+        return new TaskExecutionContext(
+                rs.getLong("id"),
+                rs.getString("type"),
+                rs.getString("payload"),
+                scheduledFor == null ? null : scheduledFor.toInstant(),
+                rs.getInt("attempt_count"),
+                rs.getInt("max_attempts")
+        );
+    };
+
+    // What a DB-mode transition returns (see TaskSnapshot)
+    private static final RowMapper<TaskSnapshot> SNAPSHOT = (rs, rowNum) -> {
+        Timestamp nextRunAt = rs.getTimestamp("next_run_at");
+        return new TaskSnapshot(
+                rs.getLong("id"),
+                rs.getString("type"),
+                TaskStatus.valueOf(rs.getString("status")),
+                rs.getInt("attempt_count"),
+                rs.getInt("max_attempts"),
+                nextRunAt == null ? null : nextRunAt.toInstant(),
+                rs.getString("last_error")
+        );
+    };
+
     // =========================
     // SQS MODE (queue) queries
     // =========================
@@ -31,6 +83,7 @@ public class TaskClaimRepository {
             SET status = 'PROCESSING',
                 processing_started_at = now(),
                 worker_id = ?,
+                lease_expires_at = now() + (? * interval '1 second'),
                 attempt_count = attempt_count + 1,
                 last_error = NULL,
                 next_run_at = NULL,
@@ -41,10 +94,72 @@ public class TaskClaimRepository {
               AND attempt_count < max_attempts
             """;
 
-        int updated = jdbc.update(sql, workerId, taskId);
+        int updated = jdbc.update(sql, workerId, leaseSeconds, taskId);
         return updated == 1;
     }
 
+    /**
+     * Batch version of claimEnqueuedTask for one SQS receive: claims every claimable id in a
+     * single statement and returns the claimed rows; ids not returned were already claimed,
+     * finished, not due yet, or out of attempts.
+     */
+    public List<TaskExecutionContext> claimEnqueuedTasks(Collection<Long> taskIds, String workerId) {
+        if (taskIds.isEmpty()) return List.of();
+
+        String sql = """
+            UPDATE tasks
+            SET status = 'PROCESSING',
+                processing_started_at = now(),
+                worker_id = ?,
+                lease_expires_at = now() + (? * interval '1 second'),
+                attempt_count = attempt_count + 1,
+                last_error = NULL,
+                next_run_at = NULL,
+                updated_at = now()
+            WHERE id = ANY(?)
+              AND status = 'ENQUEUED'
+              AND (scheduled_for IS NULL OR scheduled_for <= now())
+              AND attempt_count < max_attempts
+            RETURNING id, type, payload, scheduled_for, attempt_count, max_attempts
+            """;
+
+        return jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setString(1, workerId);
+            ps.setLong(2, leaseSeconds);
+            ps.setArray(3, con.createArrayOf("bigint", taskIds.toArray()));
+            return ps;
+        }, EXECUTION_CONTEXT);
+    }
+
+    /**
+     * Undo claims for tasks that were claimed but never started (worker shutting down).
+     * Puts them back to ENQUEUED and takes back the attempt the claim counted.
+     */
+    public int releaseClaims(Collection<Long> taskIds, String workerId) {
+        if (taskIds.isEmpty()) return 0;
+
+        String sql = """
+            UPDATE tasks
+               SET status = 'ENQUEUED',
+                   attempt_count = attempt_count - 1,
+                   worker_id = NULL,
+                   processing_started_at = NULL,
+                   lease_expires_at = NULL,
+                   updated_at = now()
+             WHERE id = ANY(?)
+               AND status = 'PROCESSING'
+               AND worker_id = ?
+            """;
+
+        return jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("bigint", taskIds.toArray()));
+            ps.setString(2, workerId);
+            return ps;
+        });
+    }
+
     /**
      * Mark task as SUCCEEDED (only the worker that claimed it can succeed it)
      */
@@ -54,7 +169,8 @@ public class TaskClaimRepository {
                SET status = 'SUCCEEDED',
                    completed_at = now(),
                    updated_at = now(),
-                   last_error = NULL
+                   last_error = NULL,
+                   lease_expires_at = NULL
              WHERE id = ?
                AND status = 'PROCESSING'
                AND worker_id = ?
@@ -91,6 +207,7 @@ public class TaskClaimRepository {
                      END,
                    updated_at = now(),
                    processing_started_at = NULL,
+                   lease_expires_at = NULL,
                    worker_id = NULL,
                    next_run_at = NULL
              WHERE id = ?
@@ -110,6 +227,17 @@ public class TaskClaimRepository {
     }
 
     public FailOutcome markFailedAndRescheduleOutcome(long taskId, String workerId, String errorMsg, long backoffSeconds) {
+        return markFailedAndRescheduleOutcome(taskId, workerId, errorMsg, backoffSeconds, 0);
+    }
+
+    /**
+     * Same as above, for a retry that reuses the SQS message (the worker sets its visibility to
+     * the backoff instead of deleting it). holdEnqueueSeconds > 0 sets the enqueue lock
+     * (next_run_at) that far past the new scheduled_for, so DueTaskEnqueuer doesn't send a second
+     * message; it only re-sends if the original never came back and got claimed.
+     */
+    public FailOutcome markFailedAndRescheduleOutcome(long taskId, String workerId, String errorMsg,
+                                                      long backoffSeconds, long holdEnqueueSeconds) {
         String sql = """
         UPDATE tasks
            SET status =
@@ -130,8 +258,13 @@ public class TaskClaimRepository {
                  END,
                updated_at = now(),
                processing_started_at = NULL,
+               lease_expires_at = NULL,
                worker_id = NULL,
-               next_run_at = NULL
+               next_run_at =
+                 CASE
+                   WHEN attempt_count >= max_attempts OR ? <= 0 THEN NULL
+                   ELSE now() + ((? + ?) * interval '1 second')
+                 END
          WHERE id = ?
            AND status = 'PROCESSING'
            AND worker_id = ?
@@ -144,8 +277,347 @@ public class TaskClaimRepository {
             int attempt = rs.getInt("attempt_count");
             int max = rs.getInt("max_attempts");
             return new FailOutcome(true, "DEAD".equalsIgnoreCase(status), attempt, max);
-        }, errorMsg, backoffSeconds, taskId, workerId);
+        }, errorMsg, backoffSeconds, holdEnqueueSeconds, backoffSeconds, holdEnqueueSeconds, taskId, workerId);
+    }
+
+    // =========================
+    // Group commit (TaskCompletionWriter)
+    // =========================
+
+    /** holdEnqueueSeconds: see markFailedAndRescheduleOutcome (0 = the enqueuer re-sends as usual). */
+    public record FailedCompletion(long taskId, String errorMsg, long backoffSeconds, long holdEnqueueSeconds) {
+        public FailedCompletion(long taskId, String errorMsg, long backoffSeconds) {
+            this(taskId, errorMsg, backoffSeconds, 0);
+        }
+    }
+
+    /**
+     * markSucceeded for many tasks in one statement. Returns the ids that were updated;
+     * the others weren't PROCESSING for this worker anymore.
+     */
+    public Set<Long> markSucceededBatch(Collection<Long> taskIds, String workerId) {
+        if (taskIds.isEmpty()) return Set.of();
+
+        String sql = """
+            UPDATE tasks t
+               SET status = 'SUCCEEDED',
+                   completed_at = now(),
+                   updated_at = now(),
+                   last_error = NULL,
+                   lease_expires_at = NULL
+              FROM unnest(?::bigint[]) AS v(id)
+             WHERE t.id = v.id
+               AND t.status = 'PROCESSING'
+               AND t.worker_id = ?
+            RETURNING t.id
+            """;
+
+        return new HashSet<>(jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("bigint", taskIds.toArray()));
+            ps.setString(2, workerId);
+            return ps;
+        }, (rs, rowNum) -> rs.getLong("id")));
+    }
+
+    /**
+     * markFailedAndRescheduleOutcome for many tasks in one statement, each with its own error and
+     * backoff. Tasks missing from the result weren't updated (FailOutcome.updated() == false).
+     */
+    public Map<Long, FailOutcome> markFailedAndRescheduleBatch(List<FailedCompletion> failures, String workerId) {
+        if (failures.isEmpty()) return Map.of();
+
+        String sql = """
+            UPDATE tasks t
+               SET status =
+                     CASE
+                       WHEN t.attempt_count >= t.max_attempts THEN 'DEAD'
+                       ELSE 'ENQUEUED'
+                     END,
+                   last_error = v.error,
+                   scheduled_for =
+                     CASE
+                       WHEN t.attempt_count >= t.max_attempts THEN NULL
+                       ELSE now() + (v.backoff_seconds * interval '1 second')
+                     END,
+                   completed_at =
+                     CASE
+                       WHEN t.attempt_count >= t.max_attempts THEN now()
+                       ELSE NULL
+                     END,
+                   updated_at = now(),
+                   processing_started_at = NULL,
+                   lease_expires_at = NULL,
+                   worker_id = NULL,
+                   next_run_at =
+                     CASE
+                       WHEN t.attempt_count >= t.max_attempts OR v.hold_seconds <= 0 THEN NULL
+                       ELSE now() + ((v.backoff_seconds + v.hold_seconds) * interval '1 second')
+                     END
+              FROM unnest(?::bigint[], ?::text[], ?::bigint[], ?::bigint[]) AS v(id, error, backoff_seconds, hold_seconds)
+             WHERE t.id = v.id
+               AND t.status = 'PROCESSING'
+               AND t.worker_id = ?
+            RETURNING t.id, t.status, t.attempt_count, t.max_attempts
+            """;
+
+        Long[] ids = new Long[failures.size()];
+        String[] errors = new String[failures.size()];
+        Long[] backoffs = new Long[failures.size()];
+        Long[] holds = new Long[failures.size()];
+        for (int i = 0; i < failures.size(); i++) {
+            FailedCompletion f = failures.get(i);
+            ids[i] = f.taskId();
+            errors[i] = f.errorMsg();
+            backoffs[i] = f.backoffSeconds();
+            holds[i] = f.holdEnqueueSeconds();
+        }
+
+        Map<Long, FailOutcome> outcomes = new HashMap<>();
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("bigint", ids));
+            ps.setArray(2, con.createArrayOf("text", errors));
+            ps.setArray(3, con.createArrayOf("bigint", backoffs));
+            ps.setArray(4, con.createArrayOf("bigint", holds));
+            ps.setString(5, workerId);
+            return ps;
+        }, rs -> {
+            outcomes.put(rs.getLong("id"), new FailOutcome(
+                    true,
+                    "DEAD".equalsIgnoreCase(rs.getString("status")),
+                    rs.getInt("attempt_count"),
+                    rs.getInt("max_attempts")));
+        });
+        return outcomes;
+    }
+
+    // =========================
+    // DB MODE (polling) queries
+    // =========================
+
+    /**
+     * Claims up to {limit} due PENDING/FAILED tasks in one statement, in poll order. Rows another
+     * poller has locked are skipped rather than waited for, so concurrent pollers get disjoint
+     * batches and never conflict on a row.
+     *
+     * The claim is fenced by (worker_id, attempt_count): markDueTaskSucceeded / markDueTaskFailed
+     * only apply while the row still carries both, i.e. nobody re-claimed it in the meantime.
+     */
+    public List<TaskExecutionContext> claimDueTasks(int limit, String workerId) {
+        String sql = """
+            WITH due AS (
+                SELECT id
+                FROM tasks
+                WHERE status IN ('PENDING', 'FAILED')
+                  AND (next_run_at IS NULL OR next_run_at <= now())
+                ORDER BY priority DESC, created_at, id -- idx_tasks_runnable_priority
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            ), claimed AS (
+                UPDATE tasks t
+                   SET status = 'PROCESSING',
+                       attempt_count = t.attempt_count + 1,
+                       worker_id = ?,
+                       processing_started_at = now(),
+                       lease_expires_at = now() + (? * interval '1 second'),
+                       next_run_at = NULL,
+                       last_error = NULL,
+                       version = COALESCE(t.version, 0) + 1, -- keep JPA's optimistic lock in step
+                       updated_at = now()
+                  FROM due
+                 WHERE t.id = due.id
+                RETURNING t.id, t.type, t.payload, t.scheduled_for, t.attempt_count, t.max_attempts,
+                          t.priority, t.created_at
+            )
+            SELECT * FROM claimed
+            ORDER BY priority DESC, created_at, id -- RETURNING has no order of its own
+            """;
+        return jdbc.query(sql, EXECUTION_CONTEXT, limit, workerId, leaseSeconds);
+    }
+
+    /**
+     * Undo DB-mode claims for tasks that were claimed but never started (worker shutting down):
+     * makes them due again right away as PENDING (first attempt) or FAILED (a retry), and takes
+     * back the attempt the claim counted.
+     */
+    public int releaseDueTaskClaims(Collection<Long> taskIds, String workerId) {
+        if (taskIds.isEmpty()) return 0;
+
+        String sql = """
+            UPDATE tasks
+               SET status = CASE WHEN attempt_count > 1 THEN 'FAILED' ELSE 'PENDING' END,
+                   attempt_count = attempt_count - 1,
+                   next_run_at = NULL,
+                   worker_id = NULL,
+                   processing_started_at = NULL,
+                   lease_expires_at = NULL,
+                   version = COALESCE(version, 0) + 1,
+                   updated_at = now()
+             WHERE id = ANY(?)
+               AND status = 'PROCESSING'
+               AND worker_id = ?
+            """;
+
+        return jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("bigint", taskIds.toArray()));
+            ps.setString(2, workerId);
+            return ps;
+        });
+    }
+
+    /** PROCESSING -> SUCCEEDED, only for the claim identified by (workerId, attempt). Empty if fenced out. */
+    public Optional<TaskSnapshot> markDueTaskSucceeded(long taskId, String workerId, int attempt) {
+        String sql = """
+            UPDATE tasks
+               SET status = 'SUCCEEDED',
+                   completed_at = now(),
+                   last_error = NULL,
+                   lease_expires_at = NULL,
+                   version = COALESCE(version, 0) + 1,
+                   updated_at = now()
+             WHERE id = ?
+               AND status = 'PROCESSING'
+               AND worker_id = ?
+               AND attempt_count = ?
+            RETURNING id, type, status, attempt_count, max_attempts, next_run_at, last_error
+            """;
+        return jdbc.query(sql, SNAPSHOT, taskId, workerId, attempt).stream().findFirst();
     }
 
+    /**
+     * PROCESSING -> FAILED (retry after backoffSeconds) or DEAD once attempts are used up, only for
+     * the claim identified by (workerId, attempt). Empty if fenced out.
+     */
+    public Optional<TaskSnapshot> markDueTaskFailed(long taskId, String workerId, int attempt,
+                                                    String errorMsg, long backoffSeconds) {
+        String sql = """
+            UPDATE tasks
+               SET status =
+                     CASE
+                       WHEN attempt_count >= max_attempts THEN 'DEAD'
+                       ELSE 'FAILED'
+                     END,
+                   last_error = ?,
+                   next_run_at =
+                     CASE
+                       WHEN attempt_count >= max_attempts THEN NULL
+                       ELSE now() + (? * interval '1 second')
+                     END,
+                   completed_at = now(),
+                   processing_started_at = NULL,
+                   lease_expires_at = NULL,
+                   worker_id = NULL,
+                   version = COALESCE(version, 0) + 1,
+                   updated_at = now()
+             WHERE id = ?
+               AND status = 'PROCESSING'
+               AND worker_id = ?
+               AND attempt_count = ?
+            RETURNING id, type, status, attempt_count, max_attempts, next_run_at, last_error
+            """;
+        return jdbc.query(sql, SNAPSHOT, errorMsg, backoffSeconds, taskId, workerId, attempt)
+                .stream().findFirst();
+    }
+
+
+    // =========================
+    // Processing leases (both modes)
+    // =========================
+
+    /** A PROCESSING task handed back by the reaper; dead = it was on its last attempt. */
+    public record ReclaimedTask(long taskId, String workerId, boolean dead, int attemptCount, int maxAttempts) {}
+
+    /**
+     * Pushes lease_expires_at forward for every task in {taskIds} that {workerId} still holds, in one
+     * statement. Returns the ids renewed; the others were finished, released or reclaimed meanwhile.
+     */
+    public Set<Long> renewLeases(Collection<Long> taskIds, String workerId) {
+        if (taskIds.isEmpty()) return Set.of();
+
+        String sql = """
+            UPDATE tasks
+               SET lease_expires_at = now() + (? * interval '1 second')
+             WHERE id = ANY(?)
+               AND status = 'PROCESSING'
+               AND worker_id = ?
+            RETURNING id
+            """;
+
+        return new HashSet<>(jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setLong(1, leaseSeconds);
+            ps.setArray(2, con.createArrayOf("bigint", taskIds.toArray()));
+            ps.setString(3, workerId);
+            return ps;
+        }, (rs, rowNum) -> rs.getLong("id")));
+    }
+
+    /**
+     * Hands back up to {limit} PROCESSING tasks whose lease ran out (their worker died or hung), oldest
+     * first. Rows another reaper is handling are skipped. The lost run counts as a failed attempt:
+     * tasks with attempts left go to {retryStatus} (ENQUEUED in SQS mode, FAILED in DB mode) and are
+     * due right away; the rest become DEAD.
+     */
+    public List<ReclaimedTask> reclaimExpiredLeases(int limit, String retryStatus) {
+        return reclaim("""
+                  AND lease_expires_at < now()
+                ORDER BY lease_expires_at
+                LIMIT ?""", retryStatus, limit);
+    }
+
+    /**
+     * Same as reclaimExpiredLeases, but for everything {workerId} holds, lease or not: a worker that
+     * restarts with the same id knows it isn't running any of them anymore.
+     */
+    public List<ReclaimedTask> reclaimHeldBy(String workerId, String retryStatus) {
+        return reclaim("""
+                  AND worker_id = ?""", retryStatus, workerId);
+    }
+
+    private List<ReclaimedTask> reclaim(String filter, String retryStatus, Object filterArg) {
+        if (!"ENQUEUED".equals(retryStatus) && !"FAILED".equals(retryStatus)) {
+            throw new IllegalArgumentException("retryStatus must be ENQUEUED or FAILED");
+        }
+        String sql = """
+            WITH lost AS (
+                SELECT id, worker_id
+                FROM tasks
+                WHERE status = 'PROCESSING'
+                %s
+                FOR UPDATE SKIP LOCKED
+            )
+            UPDATE tasks t
+               SET status =
+                     CASE
+                       WHEN t.attempt_count >= t.max_attempts THEN 'DEAD'
+                       ELSE ?
+                     END,
+                   last_error = 'Processing lease lost (worker ' || COALESCE(lost.worker_id, 'unknown') || ')',
+                   completed_at =
+                     CASE
+                       WHEN t.attempt_count >= t.max_attempts THEN now()
+                       ELSE NULL
+                     END,
+                   worker_id = NULL,
+                   processing_started_at = NULL,
+                   lease_expires_at = NULL,
+                   next_run_at = NULL, -- due now; in SQS mode the enqueuer sends it again
+                   version = COALESCE(t.version, 0) + 1,
+                   updated_at = now()
+              FROM lost
+             WHERE t.id = lost.id
+            RETURNING t.id, lost.worker_id, t.status, t.attempt_count, t.max_attempts
+            """.formatted(filter);
+
+        return jdbc.query(sql, (rs, rowNum) -> new ReclaimedTask(
+                rs.getLong("id"),
+                rs.getString("worker_id"),
+                "DEAD".equals(rs.getString("status")),
+                rs.getInt("attempt_count"),
+                rs.getInt("max_attempts")
+        ), filterArg, retryStatus);
+    }
 }
 
@@ -2,21 +2,30 @@ package com.siqiu.distributedtaskplatform.repo;
 
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.PreparedStatement;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public class TaskEnqueueRepository {
 
+    // Advisory lock class key for enqueue partitions; the second key is the partition number
+    static final int ENQUEUE_PARTITION_LOCK_CLASS = 0x647470; // "dtp"
+
+    // A task's enqueue bucket is id % ENQUEUE_BUCKETS (indexed in V10); also the most partitions there can be
+    public static final int ENQUEUE_BUCKETS = 256;
+
     private final JdbcTemplate jdbc;
 
     public TaskEnqueueRepository(JdbcTemplate jdbc) {
         this.jdbc = jdbc;
     }
 
-    public record TaskToEnqueue(long id, Instant scheduledFor) {}
+    public record TaskToEnqueue(long id, String type, int priority, Instant scheduledFor) {}
 
     /**
      * Atomically selects up to {limit} ENQUEUED tasks that are due (scheduled_for <= now),
@@ -27,33 +36,114 @@ public class TaskEnqueueRepository {
      * Postgres-specific: FOR UPDATE SKIP LOCKED.
      */
     public List<TaskToEnqueue> claimDueForEnqueue(int limit, long lockSeconds) {
+        return claimDueForEnqueue(limit, lockSeconds, 0);
+    }
+
+    /**
+     * Same, but also claims tasks due within the next {lookaheadSeconds}; those are sent with an
+     * SQS delay so they become visible when they're due. The lock runs from scheduled_for (not from
+     * now), so a task sent early isn't claimed and sent again while its message is still delayed.
+     */
+    public List<TaskToEnqueue> claimDueForEnqueue(int limit, long lockSeconds, long lookaheadSeconds) {
+        return claim("", limit, lockSeconds, lookaheadSeconds);
+    }
+
+    /**
+     * Claims only from partition {partition} of {partitions}, and only if no other enqueuer is
+     * claiming that partition right now: the partition's advisory lock is tried (not waited for)
+     * and held until this transaction commits. Returns empty if someone else has it.
+     *
+     * A partition is a contiguous range of buckets (id % 256), so the claim range-scans the
+     * expression index idx_tasks_enqueued_bucket and sorts only that partition's due rows by
+     * priority. Which node claims which partitions is decided by
+     * enqueuerMembers; the advisory lock only covers the moments when membership changes and two
+     * nodes briefly both think a partition is theirs.
+     */
+    @Transactional
+    public List<TaskToEnqueue> claimDueForEnqueueInPartition(
+            int partition, int partitions, int limit, long lockSeconds, long lookaheadSeconds) {
+        if (partitions < 1 || partitions > ENQUEUE_BUCKETS || partition < 0 || partition >= partitions) {
+            throw new IllegalArgumentException("partition must be in [0, " + partitions + ") and partitions in [1, "
+                    + ENQUEUE_BUCKETS + "]");
+        }
+        Boolean locked = jdbc.queryForObject(
+                "SELECT pg_try_advisory_xact_lock(?, ?)",
+                Boolean.class,
+                ENQUEUE_PARTITION_LOCK_CLASS, partition
+        );
+        if (!Boolean.TRUE.equals(locked)) return List.of();
+
+        // written exactly like the index expression (id % 256) so the planner can use it
+        return claim("AND id % " + ENQUEUE_BUCKETS + " >= " + firstBucket(partition, partitions)
+                        + " AND id % " + ENQUEUE_BUCKETS + " < " + firstBucket(partition + 1, partitions),
+                limit, lockSeconds, lookaheadSeconds);
+    }
+
+    /** The partition (of {partitions}) a task is claimed from; same split as the claim's bucket range. */
+    public static int partitionOf(long taskId, int partitions) {
+        int bucket = (int) (taskId % ENQUEUE_BUCKETS);
+        return (bucket * partitions) / ENQUEUE_BUCKETS;
+    }
+
+    private static int firstBucket(int partition, int partitions) {
+        // ceil(partition * buckets / partitions): the smallest bucket with partitionOf(bucket) == partition
+        return (partition * ENQUEUE_BUCKETS + partitions - 1) / partitions;
+    }
+
+    /**
+     * Records that enqueuer {nodeId} is alive and returns every node that heartbeated within the last
+     * {ttlSeconds}, sorted. Nodes that stopped heartbeating drop out (and are deleted here).
+     */
+    @Transactional
+    public List<String> enqueuerMembers(String nodeId, long ttlSeconds) {
+        jdbc.update("""
+            INSERT INTO enqueuer_nodes(node_id, heartbeat_at)
+            VALUES (?, now())
+            ON CONFLICT (node_id) DO UPDATE SET heartbeat_at = now()
+            """, nodeId);
+        jdbc.update("DELETE FROM enqueuer_nodes WHERE heartbeat_at < now() - (? * interval '1 second')", ttlSeconds);
+        return jdbc.queryForList("SELECT node_id FROM enqueuer_nodes ORDER BY node_id", String.class);
+    }
+
+    /** Leaves the membership right away (shutdown), so the other nodes take over its partitions next tick. */
+    public void leaveEnqueuerMembers(String nodeId) {
+        jdbc.update("DELETE FROM enqueuer_nodes WHERE node_id = ?", nodeId);
+    }
+
+    private List<TaskToEnqueue> claim(String partitionFilter, int limit, long lockSeconds, long lookaheadSeconds) {
         String sql = """
             WITH due AS (
                 SELECT id
                 FROM tasks
                 WHERE status = 'ENQUEUED'
-                  AND (scheduled_for IS NULL OR scheduled_for <= now())
+                  AND (scheduled_for IS NULL OR scheduled_for <= now() + (? * interval '1 second'))
                   AND attempt_count < max_attempts
                   AND (next_run_at IS NULL OR next_run_at <= now())  -- not currently enqueue-locked
-                ORDER BY scheduled_for NULLS FIRST, id
+                  %s
+                -- unpartitioned: idx_tasks_enqueued_priority; a partition sorts the rows it range-scanned
+                -- from idx_tasks_enqueued_bucket
+                ORDER BY priority DESC, scheduled_for NULLS FIRST, id
                 LIMIT ?
                 FOR UPDATE SKIP LOCKED
             )
             UPDATE tasks t
-               SET next_run_at = now() + (? * interval '1 second'), -- enqueue lock TTL
+               SET next_run_at = GREATEST(now(), COALESCE(t.scheduled_for, now()))
+                                 + (? * interval '1 second'), -- enqueue lock TTL
                    updated_at = now()
               FROM due
              WHERE t.id = due.id
-            RETURNING t.id, t.scheduled_for
-            """;
+            RETURNING t.id, t.type, t.priority, t.scheduled_for
+            """.formatted(partitionFilter);
 
         return jdbc.query(
                 sql,
                 (rs, rowNum) -> new TaskToEnqueue(
                         rs.getLong("id"),
+                        rs.getString("type"),
+                        rs.getInt("priority"),
                         rs.getTimestamp("scheduled_for") == null ? null : rs.getTimestamp("scheduled_for").toInstant()
                 ),
-                limit, lockSeconds
+                lookaheadSeconds, limit, lockSeconds
         );
     }
 
@@ -68,4 +158,21 @@ public class TaskEnqueueRepository {
             """;
         jdbc.update(sql, taskId);
     }
+
+    /** Same for many tasks in one UPDATE (a failed send batch, or the timer's tasks on shutdown). */
+    public int releaseEnqueueLocks(Collection<Long> taskIds) {
+        if (taskIds.isEmpty()) return 0;
+        String sql = """
+            UPDATE tasks
+               SET next_run_at = NULL,
+                   updated_at = now()
+             WHERE id = ANY(?)
+               AND status = 'ENQUEUED'
+            """;
+        return jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("bigint", taskIds.toArray()));
+            return ps;
+        });
+    }
 }
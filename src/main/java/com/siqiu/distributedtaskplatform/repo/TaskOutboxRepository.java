@@ -0,0 +1,146 @@
+package com.siqiu.distributedtaskplatform.repo;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Append-only outbox of tasks waiting to be published to SQS (see OutboxRelay).
+ */
+@Repository
+public class TaskOutboxRepository {
+
+    private final JdbcTemplate jdbc;
+    private final long claimSeconds;
+
+    public TaskOutboxRepository(
+            JdbcTemplate jdbc,
+            @Value("${dtp.outbox.claim-seconds:30}") long claimSeconds
+    ) {
+        this.jdbc = jdbc;
+        // how long a drained batch stays with its relay before another one may send it again
+        this.claimSeconds = Math.max(1, claimSeconds);
+    }
+
+    public record OutboxEntry(long id, long taskId, String type, int priority, Instant scheduledFor) {}
+
+    /** claimed = rows handed to the publisher; failed = rows it couldn't send (left in the outbox). */
+    public record DrainResult(int claimed, int failed) {}
+
+    /** Must run inside the transaction that creates the task, so both commit or neither does. */
+    public void append(long taskId, String type, int priority, Instant scheduledFor) {
+        jdbc.update(
+                """
+                INSERT INTO task_outbox(task_id, type, priority, scheduled_for)
+                VALUES (?, ?, ?, COALESCE(?, now()))
+                """,
+                taskId, type, priority, scheduledFor == null ? null : Timestamp.from(scheduledFor)
+        );
+    }
+
+    /**
+     * Claims up to {limit} rows that are due within {lookaheadSeconds}, hands them to {publish}, then
+     * deletes every row whose task id isn't in the returned failed set and frees the failed ones for
+     * the next drain.
+     *
+     * Not one transaction on purpose: the claim (FOR UPDATE SKIP LOCKED + claimed_until) commits
+     * before publish runs, so no locks or connection are held across the SQS call; the delete is a
+     * second short statement. If publish throws, the claims are freed and nothing is deleted. If the
+     * relay dies in between, the rows are sent again once the claim runs out (at-least-once).
+     */
+    public DrainResult drain(int limit, long lookaheadSeconds, Function<List<OutboxEntry>, Set<Long>> publish) {
+        List<OutboxEntry> entries = claim(limit, lookaheadSeconds);
+        if (entries.isEmpty()) return new DrainResult(0, 0);
+
+        Set<Long> failed;
+        try {
+            failed = publish.apply(entries);
+        } catch (RuntimeException e) {
+            updateByIds("UPDATE task_outbox SET claimed_until = NULL WHERE id = ANY(?)",
+                    entries.stream().map(OutboxEntry::id).toArray(Long[]::new));
+            throw e;
+        }
+
+        Long[] sent = entries.stream()
+                .filter(e -> !failed.contains(e.taskId()))
+                .map(OutboxEntry::id)
+                .toArray(Long[]::new);
+        Long[] unsent = entries.stream()
+                .filter(e -> failed.contains(e.taskId()))
+                .map(OutboxEntry::id)
+                .toArray(Long[]::new);
+        updateByIds("DELETE FROM task_outbox WHERE id = ANY(?)", sent);
+        updateByIds("UPDATE task_outbox SET claimed_until = NULL WHERE id = ANY(?)", unsent);
+        return new DrainResult(entries.size(), unsent.length);
+    }
+
+    private List<OutboxEntry> claim(int limit, long lookaheadSeconds) {
+        // one statement, so the row locks only last until it commits; other relays skip the rows
+        // through claimed_until after that
+        return jdbc.query(
+                """
+                WITH batch AS (
+                    SELECT id
+                      FROM task_outbox
+                     WHERE scheduled_for <= now() + (? * interval '1 second')
+                       AND (claimed_until IS NULL OR claimed_until <= now())
+                     ORDER BY scheduled_for, id -- idx_task_outbox_scheduled_for
+                     LIMIT ?
+                     FOR UPDATE SKIP LOCKED
+                ), claimed AS (
+                    UPDATE task_outbox o
+                       SET claimed_until = now() + (? * interval '1 second')
+                      FROM batch
+                     WHERE o.id = batch.id
+                    RETURNING o.id, o.task_id, o.type, o.priority, o.scheduled_for
+                )
+                SELECT * FROM claimed ORDER BY scheduled_for, id
+                """,
+                (rs, rowNum) -> new OutboxEntry(
+                        rs.getLong("id"),
+                        rs.getLong("task_id"),
+                        rs.getString("type"),
+                        rs.getInt("priority"),
+                        rs.getTimestamp("scheduled_for").toInstant()
+                ),
+                lookaheadSeconds, limit, claimSeconds
+        );
+    }
+
+    private void updateByIds(String sql, Long[] ids) {
+        if (ids.length == 0) return;
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("bigint", ids));
+            return ps;
+        });
+    }
+
+    public long size() {
+        Long n = jdbc.queryForObject("SELECT count(*) FROM task_outbox", Long.class);
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * How long the most overdue row has been due, in seconds (0 when nothing is due): how far the
+     * relay is behind. Rows scheduled for later wait here on purpose and don't count.
+     */
+    public double oldestAgeSeconds() {
+        Double age = jdbc.queryForObject(
+                """
+                SELECT COALESCE(EXTRACT(EPOCH FROM now() - min(scheduled_for)), 0)
+                  FROM task_outbox
+                 WHERE scheduled_for <= now()
+                """,
+                Double.class
+        );
+        return age == null ? 0 : age;
+    }
+}
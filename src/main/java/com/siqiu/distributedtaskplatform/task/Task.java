@@ -29,6 +29,10 @@ public class Task {
 
     private Instant updatedAt;
 
+    // Higher runs first (enqueuer and DB-mode poller order by it; sqs mode may route it to the high queue)
+    @Column(nullable = false)
+    private short priority = DEFAULT_PRIORITY;
+
     @Column(nullable = false)
     private int attemptCount = 0;
 
@@ -64,11 +68,22 @@ WHERE id=? AND version=1
     @Version
     private Long version;
 
+    public static final short DEFAULT_PRIORITY = 0;
+    public static final short MAX_PRIORITY = 9;
+
     protected Task() {}
 
     public Task(String type, String payload) {
+        this(type, payload, DEFAULT_PRIORITY);
+    }
+
+    public Task(String type, String payload, short priority) {
+        if (priority < DEFAULT_PRIORITY || priority > MAX_PRIORITY) {
+            throw new IllegalArgumentException("priority must be between " + DEFAULT_PRIORITY + " and " + MAX_PRIORITY);
+        }
         this.type = type;
         this.payload = payload;
+        this.priority = priority;
         this.status = TaskStatus.PENDING;
     }
 
@@ -88,6 +103,7 @@ WHERE id=? AND version=1
     public Long getId() { return id; }
     public String getType() { return type; }
     public String getPayload() { return payload; }
+    public short getPriority() { return priority; }
     public TaskStatus getStatus() { return status; }
     public Instant getCreatedAt() { return createdAt; }
     public Instant getUpdatedAt() { return updatedAt; }
@@ -141,6 +157,19 @@ WHERE id=? AND version=1
         this.processingStartedAt = null;
     }
 
+    /** DB mode: the poller won't pick the task before this time (same column a retry backoff uses). */
+    public void deferUntil(Instant runAt) {
+        this.nextRunAt = runAt;
+    }
+
+    /**
+     * Holds the enqueue lock (next_run_at) while the creator sends the message itself, so
+     * DueTaskEnqueuer doesn't send a second one. It expires on its own if the send never happens.
+     */
+    public void holdEnqueueLock(Instant until) {
+        this.nextRunAt = until;
+    }
+
     public void markProcessing(String workerId) {
         if (this.status != TaskStatus.ENQUEUED && this.status != TaskStatus.FAILED) {
             throw new InvalidTaskStateException(
@@ -0,0 +1,16 @@
+package com.siqiu.distributedtaskplatform.task;
+
+import java.time.Instant;
+
+/**
+ * What a worker needs to run a task, returned by the claim itself (UPDATE ... RETURNING),
+ * so execution doesn't need follow-up reads. attemptCount already includes this attempt.
+ */
+public record TaskExecutionContext(
+        long id,
+        String type,
+        String payload,
+        Instant scheduledFor,
+        int attemptCount,
+        int maxAttempts
+) {}
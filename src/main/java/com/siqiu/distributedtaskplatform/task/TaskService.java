@@ -1,6 +1,7 @@
 package com.siqiu.distributedtaskplatform.task;
 
-import com.siqiu.distributedtaskplatform.queue.TaskQueueClient;
+import com.siqiu.distributedtaskplatform.queue.OutboxRelay;
+import com.siqiu.distributedtaskplatform.repo.TaskOutboxRepository;
 import com.siqiu.distributedtaskplatform.task.dto.CreateTaskRequest;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -14,42 +15,52 @@ import java.time.Instant;
 public class TaskService {
 
     private final TaskRepository repository;
-    private final TaskQueueClient queueClient;
     private final String queueMode;
+    private final TaskOutboxRepository outbox;
+    private final OutboxRelay relay;
+    private final long enqueueLockSeconds;
 
     public TaskService(
             TaskRepository repository,
-            TaskQueueClient queueClient,
-            @Value("${dtp.queue.mode:db}") String queueMode
+            @Value("${dtp.queue.mode:db}") String queueMode,
+            TaskOutboxRepository outbox,
+            OutboxRelay relay,
+            @Value("${dtp.enqueuer.enqueue-lock-seconds:30}") long enqueueLockSeconds
     ) {
         this.repository = repository;
-        this.queueClient = queueClient;
         this.queueMode = queueMode;
+        this.outbox = outbox;
+        this.relay = relay;
+        this.enqueueLockSeconds = enqueueLockSeconds;
     }
     @Transactional
     public Task create(CreateTaskRequest request) {
-        Instant scheduledFor = Instant.now();
+        Instant now = Instant.now();
+        Instant scheduledFor = request.resolveRunAt(now);
 
-        Task task = new Task(request.getType(), request.getPayload());
+        short priority = request.getPriority() == null ? Task.DEFAULT_PRIORITY : request.getPriority().shortValue();
+        Task task = new Task(request.getType(), request.getPayload(), priority);
 
         if ("sqs".equalsIgnoreCase(queueMode)) {
             // use your domain method instead of setters
             task.markEnqueued(scheduledFor);
+            // the outbox relay sends it; keeps DueTaskEnqueuer off it meanwhile
+            task.holdEnqueueLock(scheduledFor.plusSeconds(enqueueLockSeconds));
         } else {
             task.setScheduledFor(scheduledFor); // if you still want it stored for DB mode too
-            // status stays PENDING for DB poller mode
+            // status stays PENDING for DB poller mode; it only picks tasks whose next_run_at has passed
+            if (scheduledFor.isAfter(now)) task.deferUntil(scheduledFor);
         }
         Task saved = repository.save(task);
 
-        // If we're in sqs mode, enqueue the newly created taskId
+        // If we're in sqs mode, publish through the outbox: the row commits (or not) with the task,
+        // so a crash after commit can't lose the send. OutboxRelay sends it and deletes the row.
         if ("sqs".equalsIgnoreCase(queueMode)) {
-//            queueClient.enqueueTask(String.valueOf(saved.getId()), saved.getScheduledFor().toEpochMilli());
-            //This guarantees: DB commit happens first, then SQS.
+            outbox.append(saved.getId(), saved.getType(), saved.getPriority(), saved.getScheduledFor());
             TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
                 @Override
                 public void afterCommit() {
-                    queueClient.enqueueTask(String.valueOf(saved.getId()),
-                            saved.getScheduledFor().toEpochMilli());
+                    relay.wakeNow();
                 }
             });
         }
@@ -1,27 +1,61 @@
 package com.siqiu.distributedtaskplatform.task;
 
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
+import com.siqiu.distributedtaskplatform.worker.TaskLeaseReaper;
+import com.siqiu.distributedtaskplatform.worker.TaskLeaseRenewer;
+import com.siqiu.distributedtaskplatform.worker.TaskProcessor;
+import com.siqiu.distributedtaskplatform.worker.WorkerIdentity;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.orm.ObjectOptimisticLockingFailureException;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * DB-mode worker: claims due tasks straight from the tasks table and runs them through the same
+ * TaskProcessor as the SQS worker, up to {concurrency} at a time.
+ *
+ * The poll loop only claims as many tasks as there are free slots, so nothing sits PROCESSING
+ * waiting for a thread. A claim that fills its batch means there's more waiting: it polls again
+ * as soon as a slot frees up. A short (or empty) claim means the backlog is drained, and only
+ * then does it wait idleDelayMs before the next poll.
+ */
 @Component
 @ConditionalOnProperty(name = "dtp.queue.mode", havingValue = "db", matchIfMissing = true)
-public class TaskWorker {
+public class TaskWorker implements DisposableBean {
     private static final Logger log = LoggerFactory.getLogger(TaskWorker.class);
 
-    private final TaskRepository repository;
-    private final TaskWorkerTx tx; // helper transactional bean
+    private final TaskWorkerTx tx; // fenced claim / transition statements (TaskClaimRepository)
+    private final TaskProcessor processor;
     private final MeterRegistry meterRegistry;
+    private final String workerId; // fences this node's claims; random per process unless dtp.worker.id is set (WorkerIdentity)
+    private final TaskLeaseRenewer leases;
+    private final int batchSize;
+    private final long idleDelayMs;
+    private final long shutdownGraceMs;
+
+    private final Semaphore slots; // one permit per task that may run at the same time
+    private final ExecutorService workers;
+    private final AtomicInteger busy = new AtomicInteger();
+    private final Thread poller; // null = not polling (tests drive runOnce)
+    private volatile boolean running = true;
 
     // ---- metrics (Prometheus-friendly names) ----
     private final Counter tasksProcessed;
@@ -32,13 +66,58 @@ public class TaskWorker {
     private final Timer processingTimer;
 
     public TaskWorker(
-            TaskRepository repository,
             TaskWorkerTx tx,
-            MeterRegistry meterRegistry
+            TaskProcessor processor,
+            MeterRegistry meterRegistry,
+            TaskClaimRepository claimRepo,
+            WorkerIdentity identity,
+            TaskLeaseReaper reaper,
+            @Value("${dtp.db.worker.batch-size:5}") int batchSize,
+            @Value("${dtp.db.worker.concurrency:10}") int concurrency,
+            @Value("${dtp.db.worker.virtual-threads:true}") boolean virtualThreads,
+            @Value("${dtp.db.worker.idle-delay-ms:5000}") long idleDelayMs,
+            @Value("${dtp.db.worker.shutdown-grace-seconds:30}") int shutdownGraceSeconds,
+            @Value("${dtp.db.worker.autostart:true}") boolean autoStart
+    ) {
+        this(tx, processor, meterRegistry, claimRepo, identity, reaper, batchSize, concurrency,
+                virtualThreads
+                        ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("db-worker-", 0).factory())
+                        : Executors.newFixedThreadPool(Math.max(1, concurrency)),
+                idleDelayMs, shutdownGraceSeconds, autoStart);
+    }
+
+    // package-private: tests pass their own executor
+    TaskWorker(
+            TaskWorkerTx tx,
+            TaskProcessor processor,
+            MeterRegistry meterRegistry,
+            TaskClaimRepository claimRepo,
+            WorkerIdentity identity,
+            TaskLeaseReaper reaper,
+            int batchSize,
+            int concurrency,
+            ExecutorService workers,
+            long idleDelayMs,
+            int shutdownGraceSeconds,
+            boolean autoStart
     ) {
-        this.repository = repository;
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("dtp.db.worker.batch-size must be >= 1");
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("dtp.db.worker.concurrency must be >= 1");
+        }
+        if (idleDelayMs < 1 || shutdownGraceSeconds < 0) {
+            throw new IllegalArgumentException("dtp.db.worker.idle-delay-ms must be >= 1 and shutdown-grace-seconds >= 0");
+        }
         this.tx = tx;
+        this.processor = processor;
         this.meterRegistry = meterRegistry;
+        this.workerId = identity.id();
+        this.leases = new TaskLeaseRenewer(claimRepo, workerId);
+        this.batchSize = batchSize;
+        this.idleDelayMs = idleDelayMs;
+        this.shutdownGraceMs = TimeUnit.SECONDS.toMillis(shutdownGraceSeconds);
 
         this.tasksProcessed = meterRegistry.counter("dtp_tasks_processed_total");
         this.tasksSucceeded = meterRegistry.counter("dtp_tasks_succeeded_total");
@@ -50,108 +129,210 @@ public class TaskWorker {
                 .description("Time spent processing a task")
                 .publishPercentileHistogram()
                 .register(meterRegistry);
+        Gauge.builder("dtp_db_worker_inflight", busy, AtomicInteger::get)
+                .description("Number of tasks the DB-mode worker is currently running on this node")
+                .register(meterRegistry);
+
+        this.slots = new Semaphore(concurrency);
+        this.workers = workers;
+        if (autoStart) {
+            // with a configured (stable) id, anything still held under it is from a previous run
+            if (identity.configured()) {
+                try {
+                    reaper.reclaimHeldBy(workerId);
+                } catch (Exception e) {
+                    log.error("Failed to reclaim tasks from this worker's previous run. workerId={}", workerId, e);
+                }
+            }
+            leases.start();
+            this.poller = Thread.ofPlatform().name("db-task-poller").daemon(true).unstarted(this::runLoop);
+            this.poller.start();
+        } else {
+            this.poller = null;
+        }
     }
 
-    /*
-     * Background worker that periodically processes pending tasks.
-     * This simulates async task execution without queues.
+    private void runLoop() {
+        while (running) {
+            try {
+                boolean more;
+                try {
+                    more = poll();
+                } catch (RuntimeException e) {
+                    log.error("DB-mode claim failed; retrying in {}ms", idleDelayMs, e);
+                    more = false;
+                }
+                if (!more) {
+                    Thread.sleep(idleDelayMs); // drained the backlog (or the claim failed)
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * One poll: waits for a free slot, claims for every slot that's free (up to batchSize) and
+     * starts the claimed tasks. Each slot is given back exactly once: right away if nothing was
+     * claimed for it or its task couldn't start, otherwise when its task finishes.
+     * Returns true if the claim filled up, i.e. there's probably more waiting.
      */
-    //Run this method automatically, in the background, over and over.
-    //There is no HTTP request, no user trigger, no controller involved.
+    // package-private so tests in same package can call it
+    boolean poll() throws InterruptedException {
+        slots.acquire();
+        int free = 1 + slots.drainPermits();
+        int limit = Math.min(batchSize, free);
+        slots.release(free - limit);
 
-    @Scheduled(fixedDelay = 5000)
-    public void processPendingTasks() {
-        runOnce();
+        List<TaskExecutionContext> batch;
+        try {
+            batch = tx.claimBatchForExecution(limit, workerId);
+        } catch (RuntimeException e) {
+            slots.release(limit);
+            throw e;
+        }
+        slots.release(limit - batch.size());
+        start(batch, slots::release);
+        return batch.size() >= limit;
     }
 
-    // package-private so tests in same package can call it
+    // package-private so tests in same package can call it: one claim, and waits for the batch to finish
     void runOnce() {
-        Instant now = Instant.now();
-
-        List<Task> tasks = repository.findTop5Eligible(
-                now,
-                org.springframework.data.domain.PageRequest.of(0, 5)
-        );
+        List<TaskExecutionContext> batch = tx.claimBatchForExecution(batchSize, workerId);
+        CompletableFuture.allOf(start(batch, () -> {}).toArray(CompletableFuture[]::new)).join();
+    }
 
-        for (Task t : tasks) {
-            Long id = t.getId();
+    // package-private for tests: slots not taken by a claimed task
+    int freeSlots() {
+        return slots.availablePermits();
+    }
 
-            TaskSnapshot claimed = tx.claimAndGetSnapshot(id);
-            if (claimed == null) {
-                claimConflicts.increment();
-                log.info("task_skipped id={} reason=already_claimed_or_not_due", id);
-                continue;
+    /**
+     * Starts each claimed task on the executor; {onDone} runs once per task, when it finishes or
+     * straight away if it can't be started (executor shutting down).
+     */
+    private List<CompletableFuture<Void>> start(List<TaskExecutionContext> batch, Runnable onDone) {
+        List<CompletableFuture<Void>> started = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            TaskExecutionContext claimed = batch.get(i);
+            log.info("task_claimed id={} attempt={} maxAttempts={}",
+                    claimed.id(), claimed.attemptCount(), claimed.maxAttempts());
+            leases.hold(claimed.id());
+            try {
+                started.add(CompletableFuture.runAsync(() -> execute(claimed), workers)
+                        .whenComplete((r, e) -> {
+                            leases.release(claimed.id());
+                            onDone.run();
+                        }));
+            } catch (RejectedExecutionException e) {
+                // shutting down: hand this task and the rest of the batch back instead of leaving
+                // them PROCESSING until their leases run out
+                List<TaskExecutionContext> notStarted = batch.subList(i, batch.size());
+                releaseClaims(notStarted);
+                notStarted.forEach(t -> onDone.run());
+                break;
             }
-            log.info("task_claimed id={} status={} attempt={} maxAttempts={}",
-                    claimed.id(), claimed.status(), claimed.attemptCount(), claimed.maxAttempts());
+        }
+        return started;
+    }
 
-            Instant startedAt = Instant.now();
-            Timer.Sample sample = Timer.start(meterRegistry);
+    private void releaseClaims(List<TaskExecutionContext> notStarted) {
+        List<Long> ids = notStarted.stream().map(TaskExecutionContext::id).toList();
+        ids.forEach(leases::release);
+        try {
+            int released = tx.releaseClaims(ids, workerId);
+            log.warn("task_not_started count={} released={} reason=worker_shutting_down taskIds={}",
+                    ids.size(), released, ids);
+        } catch (Exception e) {
+            // they go back to the queue when their leases run out
+            log.error("Failed to release {} unstarted tasks. taskIds={}", ids.size(), ids, e);
+        }
+    }
 
-            try {
-                // Re-read a fresh copy after claim (short tx)
-                String payload = tx.getPayload(id);
+    private void execute(TaskExecutionContext claimed) {
+        Long id = claimed.id();
+        busy.incrementAndGet();
 
-                log.info("task_processing_started id={} type={} payloadLen={}",
-                        id, claimed.type(), payload == null ? 0 : payload.length());
-                Thread.sleep(3000); // simulate work
+        Instant startedAt = Instant.now();
+        Timer.Sample sample = Timer.start(meterRegistry);
 
-                if (payload != null && payload.contains("fail")) {
-                    log.warn("task_processing_failed_expected id={} errorClass={} msg={}",
-                            id, "TaskProcessingException", "Simulated failure");
-                    throw new TaskProcessingException("Simulated failure");
-                }
-                TaskSnapshot after = tx.markSucceeded(id);
-                tasksSucceeded.increment();
+        try {
+            String payload = claimed.payload();
 
-                log.info("task_succeeded id={} status={} attempt={} durationMs={}",
-                        after.id(), after.status(), after.attemptCount(),
-                        java.time.Duration.between(startedAt, Instant.now()).toMillis());
+            log.info("task_processing_started id={} type={} payloadLen={}",
+                    id, claimed.type(), payload == null ? 0 : payload.length());
+            processor.process(claimed);
 
-            } catch (org.springframework.orm.ObjectOptimisticLockingFailureException e) {
+            TaskSnapshot after = tx.markSucceeded(claimed, workerId);
+            if (after == null) {
                 claimConflicts.increment();
-                log.warn("task_conflict_optimistic_lock id={} phase=processing durationMs={}",
-                        id, java.time.Duration.between(startedAt, Instant.now()).toMillis());
-            } catch (InterruptedException e) {
-                //re-sets the interrupt flag so upper layers (Spring scheduler / thread pool)
-                // can see that the thread was interrupted and can react correctly.
-                Thread.currentThread().interrupt();
-                log.warn("task_interrupted id={} durationMs={}",
+                log.warn("task_claim_lost id={} phase=markSucceeded durationMs={}",
                         id, java.time.Duration.between(startedAt, Instant.now()).toMillis());
-                tryMarkFailed(id, e);
-            } catch (Exception e) {
-                boolean expected = (e instanceof TaskProcessingException);
-
-                if (expected) {
-                    log.warn("task_processing_failed_expected id={} errorClass={} msg={} durationMs={}",
-                            id, e.getClass().getSimpleName(), e.getMessage(),
-                            java.time.Duration.between(startedAt, Instant.now()).toMillis());
-                } else {
-                    log.error("task_processing_failed_unexpected id={} errorClass={} msg={} durationMs={}",
-                            id, e.getClass().getSimpleName(), e.getMessage(),
-                            java.time.Duration.between(startedAt, Instant.now()).toMillis(), e);
-                }
+                return;
+            }
+            tasksSucceeded.increment();
+
+            log.info("task_succeeded id={} status={} attempt={} durationMs={}",
+                    after.id(), after.status(), after.attemptCount(),
+                    java.time.Duration.between(startedAt, Instant.now()).toMillis());
 
-                // ✅ important: always update retry state for any failure
-                tryMarkFailed(id, e);
-            } finally {
-                tasksProcessed.increment();
-                sample.stop(processingTimer);
+        } catch (Exception e) {
+            boolean expected = (e instanceof TaskProcessingException);
+
+            if (expected) {
+                log.warn("task_processing_failed_expected id={} errorClass={} msg={} durationMs={}",
+                        id, e.getClass().getSimpleName(), e.getMessage(),
+                        java.time.Duration.between(startedAt, Instant.now()).toMillis());
+            } else {
+                log.error("task_processing_failed_unexpected id={} errorClass={} msg={} durationMs={}",
+                        id, e.getClass().getSimpleName(), e.getMessage(),
+                        java.time.Duration.between(startedAt, Instant.now()).toMillis(), e);
             }
 
+            // ✅ important: always update retry state for any failure
+            tryMarkFailed(claimed, e);
+        } finally {
+            tasksProcessed.increment();
+            sample.stop(processingTimer);
+            busy.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        log.info("DB-mode worker draining. inFlight={} graceMs={}", busy.get(), shutdownGraceMs);
+        running = false;
+        if (poller != null) poller.interrupt();
+
+        // running tasks may finish; what's still running after the grace period is interrupted
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(shutdownGraceMs, TimeUnit.MILLISECONDS)) {
+                log.warn("Shutdown grace period over; interrupting {} running tasks", busy.get());
+                workers.shutdownNow();
+                workers.awaitTermination(5_000, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
         }
+        leases.close();
     }
 
-    private void tryMarkFailed(Long id, Exception e) {
+    private void tryMarkFailed(TaskExecutionContext claimed, Exception e) {
+        long id = claimed.id();
         try {
-            TaskSnapshot after = tx.markFailed(id, e);
+            TaskSnapshot after = tx.markFailed(claimed, workerId, e);
+            if (after == null) {
+                claimConflicts.increment();
+                log.warn("task_claim_lost id={} phase=markFailed", id);
+                return;
+            }
             tasksFailed.increment();
             log.info("task_retry_state_updated id={} status={} attempt={} maxAttempts={} nextRunAt={} lastError={}",
                     after.id(), after.status(), after.attemptCount(), after.maxAttempts(),
                     after.nextRunAt(), after.lastError());
-        } catch (ObjectOptimisticLockingFailureException ex) {
-            claimConflicts.increment();
-            log.warn("task_conflict_optimistic_lock id={} phase=markFailed", id);
         } catch (Exception ex) {
             markFailedErrors.increment();
             log.error("task_markFailed_failed id={} errorClass={} msg={}",
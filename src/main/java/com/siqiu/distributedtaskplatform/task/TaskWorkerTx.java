@@ -1,66 +1,50 @@
 package com.siqiu.distributedtaskplatform.task;
 
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
-import java.time.Instant;
+import java.util.List;
 
 @Service
 @ConditionalOnProperty(name = "dtp.queue.mode", havingValue = "db", matchIfMissing = true)
 public class TaskWorkerTx {
-    private final TaskRepository repository;
+    private final TaskClaimRepository claimRepo;
 
-    public TaskWorkerTx(TaskRepository repository) {
-        this.repository = repository;
+    public TaskWorkerTx(TaskClaimRepository claimRepo) {
+        this.claimRepo = claimRepo;
     }
 
-    @Transactional
-    public TaskSnapshot claimAndGetSnapshot(Long id) {
-        Instant now = Instant.now();
-        int updated = repository.claim(id, now);
-        if (updated != 1) return null;
-
-        return repository.findSnapshotById(id);
+    /**
+     * Claims up to {limit} due tasks in one UPDATE ... FOR UPDATE SKIP LOCKED ... RETURNING,
+     * fenced by {workerId} and the returned attemptCount.
+     */
+    public List<TaskExecutionContext> claimBatchForExecution(int limit, String workerId) {
+        return claimRepo.claimDueTasks(limit, workerId);
     }
 
-//readOnly = true It declares intent, prevents accidental updates by disabling dirty checking in JPA,
-// and improves performance for read-only operations.
-    @Transactional(readOnly = true)
-    public String getPayload(Long id) {
-        return repository.findById(id).map(Task::getPayload).orElse(null);
+    /** Hands claimed tasks that never started back to the queue; returns how many were released. */
+    public int releaseClaims(List<Long> taskIds, String workerId) {
+        return claimRepo.releaseDueTaskClaims(taskIds, workerId);
     }
 
-    @Transactional
-    public TaskSnapshot markSucceeded(Long id) {
-        Task task = repository.findById(id).orElseThrow();
-        task.markSucceeded();
-        return toSnapshot(task);
+    // The transitions below are single fenced statements (autocommit, no entity loads): null means
+    // the claim no longer holds, e.g. the task was cancelled or re-claimed meanwhile.
+
+    public TaskSnapshot markSucceeded(TaskExecutionContext claimed, String workerId) {
+        return claimRepo.markDueTaskSucceeded(claimed.id(), workerId, claimed.attemptCount()).orElse(null);
     }
 
-    @Transactional
-    public TaskSnapshot markFailed(Long id, Exception e) {
-        Task task = repository.findById(id).orElseThrow();
-        // backoff based on *next* attemptCount after increment
-        int nextAttempt = task.getAttemptCount() + 1;
-        Duration backoff = backoffForAttempt(nextAttempt);
+    public TaskSnapshot markFailed(TaskExecutionContext claimed, String workerId, Exception e) {
+        String error = (e.getMessage() == null || e.getMessage().isBlank()) ? "Unknown error" : e.getMessage();
+        // backoff based on *next* attemptCount, as before
+        Duration backoff = backoffForAttempt(claimed.attemptCount() + 1);
 
-        task.markFailed(e.getMessage(), backoff);
-        return toSnapshot(task);
+        return claimRepo.markDueTaskFailed(claimed.id(), workerId, claimed.attemptCount(),
+                error, backoff.toSeconds()).orElse(null);
     }
 
-    private TaskSnapshot toSnapshot(Task t) {
-        return new TaskSnapshot(
-                t.getId(),
-                t.getType(),
-                t.getStatus(),
-                t.getAttemptCount(),
-                t.getMaxAttempts(),
-                t.getNextRunAt(),
-                t.getLastError()
-        );
-    }
 //We use capped exponential backoff to prevent retry storms
 // and reduce pressure on failing dependencies.
     private Duration backoffForAttempt(int attemptCount) {
@@ -1,18 +1,66 @@
 package com.siqiu.distributedtaskplatform.task.dto;
 
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.PositiveOrZero;
+
+import java.time.Instant;
 
 public class CreateTaskRequest {
 
+    // How far ahead a task may be scheduled; keeps now + delay inside Instant and timestamptz range
+    public static final long MAX_SCHEDULE_AHEAD_SECONDS = 365L * 24 * 60 * 60;
+
     @NotBlank
     private String type;
 
     @NotBlank
     private String payload;
 
+    // 0 (default, bulk) .. 9 (most urgent)
+    @Min(0)
+    @Max(9)
+    private Integer priority;
+
+    // When to run: an absolute time (ISO-8601) or a delay from now; neither = now. Past runAt = now.
+    private Instant runAt;
+
+    @PositiveOrZero
+    @Max(MAX_SCHEDULE_AHEAD_SECONDS)
+    private Long delaySeconds;
+
     public String getType() { return type; }
     public void setType(String type) { this.type = type; }
 
     public String getPayload() { return payload; }
     public void setPayload(String payload) { this.payload = payload; }
+
+    public Integer getPriority() { return priority; }
+    public void setPriority(Integer priority) { this.priority = priority; }
+
+    public Instant getRunAt() { return runAt; }
+    public void setRunAt(Instant runAt) { this.runAt = runAt; }
+
+    public Long getDelaySeconds() { return delaySeconds; }
+    public void setDelaySeconds(Long delaySeconds) { this.delaySeconds = delaySeconds; }
+
+    @AssertTrue(message = "set runAt or delaySeconds, not both")
+    public boolean isScheduleUnambiguous() {
+        return runAt == null || delaySeconds == null;
+    }
+
+    @AssertTrue(message = "runAt must be at most " + MAX_SCHEDULE_AHEAD_SECONDS + " seconds from now")
+    public boolean isRunAtInRange() {
+        return runAt == null || !runAt.isAfter(Instant.now().plusSeconds(MAX_SCHEDULE_AHEAD_SECONDS));
+    }
+
+    /** When the task should run: runAt, now + delaySeconds, or now; never earlier than now. */
+    public Instant resolveRunAt(Instant now) {
+        Instant at = runAt != null ? runAt
+                : delaySeconds != null ? now.plusSeconds(delaySeconds)
+                : now;
+        return at.isBefore(now) ? now : at;
+    }
 }
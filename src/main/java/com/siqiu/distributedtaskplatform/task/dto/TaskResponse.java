@@ -12,6 +12,7 @@ public class TaskResponse {
     private Long id;
     private String type;
     private String payload;
+    private short priority;
     private TaskStatus status;
     private Instant createdAt;
     private Instant updatedAt;
@@ -35,6 +36,7 @@ public class TaskResponse {
         r.id = task.getId();
         r.type = task.getType();
         r.payload = task.getPayload();
+        r.priority = task.getPriority();
         r.status = task.getStatus();
         r.createdAt = task.getCreatedAt();
         r.updatedAt = task.getUpdatedAt();
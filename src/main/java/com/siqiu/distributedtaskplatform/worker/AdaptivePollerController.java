@@ -0,0 +1,77 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides how many of the poller threads should be calling ReceiveMessage right now.
+ *
+ * - A full batch while we still have free processing slots means there's a backlog: add a poller.
+ * - An empty receive means the queue is drained: drop a poller, down to a single long-poll.
+ * - A partial batch keeps the current number.
+ *
+ * Pollers with index >= activePollers() park in awaitActive() until they're needed again,
+ * so an idle node pays for one long-poll at a time instead of maxPollers.
+ */
+class AdaptivePollerController {
+
+    private final int maxPollers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition scaledUp = lock.newCondition();
+    private volatile int active = 1;
+
+    AdaptivePollerController(int maxPollers) {
+        if (maxPollers < 1) {
+            throw new IllegalArgumentException("maxPollers must be >= 1");
+        }
+        this.maxPollers = maxPollers;
+    }
+
+    int activePollers() {
+        return active;
+    }
+
+    int maxPollers() {
+        return maxPollers;
+    }
+
+    boolean isActive(int pollerIndex) {
+        return pollerIndex < active;
+    }
+
+    /**
+     * Feed back the result of one ReceiveMessage call.
+     *
+     * @param requested    maxNumberOfMessages we asked for
+     * @param received     messages we got
+     * @param freeCapacity processing slots still free after this batch
+     */
+    void onReceive(int requested, int received, int freeCapacity) {
+        lock.lock();
+        try {
+            if (received == 0) {
+                if (active > 1) active--;
+            } else if (received >= requested && freeCapacity > 0 && active < maxPollers) {
+                active++;
+                scaledUp.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Parks an inactive poller until it's scaled back in (or the timeout passes). */
+    void awaitActive(int pollerIndex, long timeoutMs) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (pollerIndex >= active && nanos > 0) {
+                nanos = scaledUp.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
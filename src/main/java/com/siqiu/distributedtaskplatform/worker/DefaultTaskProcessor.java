@@ -1,5 +1,6 @@
 package com.siqiu.distributedtaskplatform.worker;
 
+import com.siqiu.distributedtaskplatform.task.TaskExecutionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -10,12 +11,22 @@ public class DefaultTaskProcessor implements TaskProcessor {
 
     @Override
     public void process(long taskId) {
-        // Replace with real logic later
+        simulateWork();
+        log.info("Processed taskId={}", taskId);
+    }
+
+    @Override
+    public void process(TaskExecutionContext task) {
+        simulateWork();
+        log.info("Processed taskId={} type={} attempt={}/{}", task.id(), task.type(), task.attemptCount(), task.maxAttempts());
+    }
+
+    // Replace with real logic later
+    private static void simulateWork() {
         try {
             Thread.sleep(50);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
-        log.info("Processed taskId={}", taskId);
     }
 }
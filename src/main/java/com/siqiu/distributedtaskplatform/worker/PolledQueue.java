@@ -0,0 +1,89 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One SQS queue the worker consumes (the default queue, or a per-type queue from SqsQueueRouting).
+ *
+ * Each queue has its own pollers, so an empty queue's long-poll never delays another queue, and
+ * its own ack buffer and lease extender, since receipt handles only work against their own queue.
+ * maxInFlight caps how many of its messages can be buffered or running at once, so one slow type
+ * can't take every worker.
+ */
+final class PolledQueue {
+
+    final String name;
+    final String url;
+    final AdaptivePollerController pollers;
+    final SqsAckBuffer acks;
+    final VisibilityLeaseExtender leases;
+
+    private final Semaphore slots; // null = no per-queue cap
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Last receive returned messages (strict priority: lower queues hold off while this is set)
+    private volatile boolean backlog;
+
+    PolledQueue(
+            String name,
+            String url,
+            int maxPollers,
+            int maxInFlight,
+            SqsAckBuffer acks,
+            VisibilityLeaseExtender leases
+    ) {
+        this.name = name;
+        this.url = url;
+        this.pollers = new AdaptivePollerController(maxPollers);
+        this.slots = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.acks = acks;
+        this.leases = leases;
+    }
+
+    /**
+     * Blocks until the queue is under its cap, then grabs up to {max} slots without waiting.
+     * Uncapped queues always get {max}. The caller releases the slots it doesn't fill.
+     */
+    int reserve(int max) throws InterruptedException {
+        if (slots == null) return max;
+        slots.acquire();
+        int reserved = 1;
+        while (reserved < max && slots.tryAcquire()) {
+            reserved++;
+        }
+        return reserved;
+    }
+
+    void release(int count) {
+        if (slots != null && count > 0) slots.release(count);
+    }
+
+    /** A claimed message from this queue went into the buffer (its slot stays taken). */
+    void started() {
+        inFlight.incrementAndGet();
+    }
+
+    /** A message from this queue finished or was handed back: frees its slot. */
+    void finished() {
+        inFlight.decrementAndGet();
+        release(1);
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    void onReceived(int messages) {
+        backlog = messages > 0;
+    }
+
+    boolean hasBacklog() {
+        return backlog;
+    }
+
+    void close() {
+        acks.close();
+        leases.close();
+    }
+}
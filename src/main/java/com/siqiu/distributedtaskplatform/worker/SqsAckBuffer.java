@@ -0,0 +1,223 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers receipt handles of finished messages and deletes them with DeleteMessageBatch.
+ *
+ * A flush happens when a full batch is buffered, every flushInterval, and on close().
+ * Callers must only add a handle AFTER the DB update for that task succeeded
+ * (same rule as the old per-message delete).
+ *
+ * Failed entries are retried on the next flush (up to MAX_ATTEMPTS) unless SQS reports
+ * a sender fault (e.g. expired receipt handle): retrying those can't succeed, the message
+ * simply becomes visible again and the DB claim gate rejects it.
+ *
+ * With an SqsAsyncClient the chunks of one flush are sent concurrently; flush() still returns
+ * only once all of them have completed.
+ */
+class SqsAckBuffer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SqsAckBuffer.class);
+
+    static final int MAX_BATCH = 10; // SQS limit for DeleteMessageBatch
+    static final int MAX_ATTEMPTS = 3;
+
+    private record PendingAck(String receiptHandle, int attempts) {}
+
+    private final SqsClient sqs;
+    private final SqsAsyncClient sqsAsync; // null = sync client
+    private final String queueUrl;
+    private final String queueTag; // metrics tag
+    private final TaskMetrics metrics;
+    private final int batchSize;
+
+    private final Object bufferLock = new Object();
+    private List<PendingAck> pending = new ArrayList<>();
+
+    // Serializes flushes so flush() returns only after everything buffered before it was sent.
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final ScheduledExecutorService flusher;
+
+    SqsAckBuffer(SqsClient sqs, String queueUrl, TaskMetrics metrics, int batchSize, long flushIntervalMs) {
+        this(sqs, null, queueUrl, metrics, batchSize, flushIntervalMs);
+    }
+
+    SqsAckBuffer(
+            SqsClient sqs,
+            SqsAsyncClient sqsAsync,
+            String queueUrl,
+            TaskMetrics metrics,
+            int batchSize,
+            long flushIntervalMs
+    ) {
+        if (batchSize < 1 || batchSize > MAX_BATCH) {
+            throw new IllegalArgumentException("ack batch size must be between 1 and " + MAX_BATCH);
+        }
+        this.sqs = sqs;
+        this.sqsAsync = sqsAsync;
+        this.queueUrl = queueUrl;
+        this.queueTag = TaskMetrics.queueTag(queueUrl);
+        this.metrics = metrics;
+        this.batchSize = batchSize;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sqs-ack-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        if (flushIntervalMs > 0) {
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Queue a message for deletion. Sends a batch inline once batchSize handles are buffered. */
+    void add(String receiptHandle) {
+        boolean full;
+        synchronized (bufferLock) {
+            pending.add(new PendingAck(receiptHandle, 0));
+            full = pending.size() >= batchSize;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    int pendingCount() {
+        synchronized (bufferLock) {
+            return pending.size();
+        }
+    }
+
+    /** Deletes everything currently buffered. Failed entries are kept for the next flush. */
+    void flush() {
+        flushLock.lock();
+        try {
+            List<PendingAck> batch;
+            synchronized (bufferLock) {
+                if (pending.isEmpty()) return;
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+
+            List<CompletableFuture<List<PendingAck>>> calls = new ArrayList<>();
+            for (int from = 0; from < batch.size(); from += MAX_BATCH) {
+                calls.add(deleteBatch(batch.subList(from, Math.min(from + MAX_BATCH, batch.size()))));
+            }
+
+            List<PendingAck> retry = new ArrayList<>();
+            for (CompletableFuture<List<PendingAck>> call : calls) {
+                retry.addAll(call.join()); // never completes exceptionally, see deleteBatch
+            }
+
+            if (!retry.isEmpty()) {
+                synchronized (bufferLock) {
+                    pending.addAll(retry);
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /** Completes with the entries that should be retried. */
+    private CompletableFuture<List<PendingAck>> deleteBatch(List<PendingAck> chunk) {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(String.valueOf(i)) // only needs to be unique within the request
+                    .receiptHandle(chunk.get(i).receiptHandle())
+                    .build());
+        }
+
+        DeleteMessageBatchRequest req = DeleteMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build();
+
+        CompletableFuture<DeleteMessageBatchResponse> call;
+        if (sqsAsync != null) {
+            call = sqsAsync.deleteMessageBatch(req);
+        } else {
+            try {
+                call = CompletableFuture.completedFuture(sqs.deleteMessageBatch(req));
+            } catch (Exception e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+        }
+
+        return call.handle((resp, err) -> {
+            if (err != null) {
+                log.warn("DeleteMessageBatch failed. Will retry. size={}", chunk.size(), err);
+                return retryable(chunk);
+            }
+            return onResponse(chunk, resp);
+        });
+    }
+
+    private List<PendingAck> onResponse(List<PendingAck> chunk, DeleteMessageBatchResponse resp) {
+        for (int i = 0; i < resp.successful().size(); i++) {
+            metrics.incDeleted(queueTag);
+        }
+
+        List<PendingAck> retry = new ArrayList<>();
+        for (BatchResultErrorEntry err : resp.failed()) {
+            PendingAck ack = chunk.get(Integer.parseInt(err.id()));
+            if (Boolean.TRUE.equals(err.senderFault())) {
+                metrics.incDeleteFailed(queueTag);
+                log.warn("Delete rejected by SQS, dropping ack. code={} msg={}", err.code(), err.message());
+            } else {
+                retry.addAll(retryable(List.of(ack)));
+            }
+        }
+        return retry;
+    }
+
+    private List<PendingAck> retryable(List<PendingAck> acks) {
+        List<PendingAck> retry = new ArrayList<>();
+        for (PendingAck ack : acks) {
+            if (ack.attempts() + 1 >= MAX_ATTEMPTS) {
+                metrics.incDeleteFailed(queueTag);
+                log.error("Giving up deleting SQS message after {} attempts. Message will be redelivered.", MAX_ATTEMPTS);
+            } else {
+                retry.add(new PendingAck(ack.receiptHandle(), ack.attempts() + 1));
+            }
+        }
+        return retry;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            // never let the scheduled flusher die
+            log.error("Ack flush failed", e);
+        }
+    }
+
+    /** Stops the timer and flushes whatever is left (used on shutdown). */
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        for (int i = 0; i < MAX_ATTEMPTS && pendingCount() > 0; i++) {
+            flush();
+        }
+    }
+}
@@ -3,21 +3,31 @@ package com.siqiu.distributedtaskplatform.worker;
 import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
 import com.siqiu.distributedtaskplatform.queue.DeadLetterClient;
 import com.siqiu.distributedtaskplatform.queue.DeadTaskEvent;
+import com.siqiu.distributedtaskplatform.queue.SqsQueueRouting;
 import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
+import com.siqiu.distributedtaskplatform.task.TaskExecutionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @ConditionalOnProperty(name = "dtp.queue.mode", havingValue = "sqs")
 @Service
@@ -26,14 +36,52 @@ public class SqsWorkerLoop implements DisposableBean {
     private static final Logger log = LoggerFactory.getLogger(SqsWorkerLoop.class);
 
     private final SqsClient sqs;
-    private final String queueUrl;
+    private final SqsAsyncClient sqsAsync; // null = blocking sync client
     private final TaskClaimRepository claimRepo;
     private final TaskMetrics metrics;
 
-    private final ExecutorService loop = Executors.newSingleThreadExecutor();
+    // Max messages requested per ReceiveMessage call (SQS limit)
+    private static final int MAX_RECEIVE_BATCH = 10;
+
+    // Queues we consume: the default queue first, then one per routed task type.
+    // Each has its own pollers (split by weight), per-queue cap, acks and leases.
+    private final List<PolledQueue> queues;
+    private final PolledQueue defaultQueue;
+
+    // Priorities (see SqsQueueRouting): the high queue is weighted like the others, or with
+    // strictPriority the other queues only receive while it has no backlog
+    private static final long STRICT_PRIORITY_BACKOFF_MS = 100;
+    private final PolledQueue highPriorityQueue; // null = no high-priority queue
+    private final boolean strictPriority;
+
+    // Receive side: the queues' poller threads; each queue's controller decides how many are actually polling
+    private final ExecutorService loop;
+    private final int waitTimeSeconds;
     private volatile boolean running = true;
 
-    private final String workerId = UUID.randomUUID().toString();
+    // Prefetch buffer between pollers and workers: pollers keep it topped up while workers are busy,
+    // and stop receiving once it's full so nothing sits there until its visibility runs out.
+    // bufferSpace has one permit per free buffer slot; pollers reserve before receiving.
+    // It's fair, so when the buffer is the bottleneck free slots go round-robin to the waiting
+    // pollers, i.e. each queue gets a share in proportion to its weight (= its poller count).
+    private final BlockingQueue<PrefetchedMessage> buffer;
+    private final Semaphore bufferSpace;
+
+    // Processing: {concurrency} workers, each taking the next message from the buffer
+    private final ExecutorService workers;
+    private final int concurrency;
+    private final AtomicInteger busy = new AtomicInteger();
+    private final Set<Long> inFlightTasks = ConcurrentHashMap.newKeySet();
+
+    // On shutdown: how long running tasks get to finish before they're interrupted
+    private final long shutdownGraceMs;
+
+    // Random per process unless dtp.worker.id is set; only then is it reclaimed on restart (TaskLeaseReaper.reclaimHeldBy)
+    private final String workerId;
+
+    // Processing leases of everything this worker has claimed (prefetched or running)
+    private final TaskLeaseRenewer leases;
+    private final TaskLeaseReaper reaper; // null = don't reclaim a previous run's tasks on start
 
     private final boolean autoStart;
 
@@ -41,6 +89,30 @@ public class SqsWorkerLoop implements DisposableBean {
 
     private final TaskProcessor processor;
 
+    // Group commit of markSucceeded / markFailed (passthrough when its flush interval is 0)
+    private final TaskCompletionWriter completions;
+
+    private final int visibilityTimeoutSeconds;
+
+    // Retries: hide the same message for the backoff instead of delete + enqueuer re-send
+    private static final long MAX_VISIBILITY_SECONDS = TimeUnit.HOURS.toSeconds(12);
+    private final long retryBackoffSeconds;
+    private final long inPlaceRetryGraceSeconds; // 0 = delete + re-send
+
+    public SqsWorkerLoop(
+            SqsClient sqs,
+            String queueName,
+            TaskClaimRepository claimRepo,
+            TaskMetrics metrics,
+            boolean autoStart,
+            DeadLetterClient dlq,
+            TaskProcessor processor
+    ) {
+        this(sqs, null, queueName, claimRepo, metrics, autoStart, dlq, processor,
+                SqsWorkerSettings.defaults(), SqsQueueRouting.none());
+    }
+
+    @Autowired
     public SqsWorkerLoop(
             SqsClient sqs,
             @Value("${dtp.sqs.queueName}") String queueName,
@@ -48,34 +120,193 @@ public class SqsWorkerLoop implements DisposableBean {
             TaskMetrics metrics,
             @Value("${dtp.sqs.worker.autostart:true}") boolean autoStart,
             DeadLetterClient dlq,
-            TaskProcessor processor
+            TaskProcessor processor,
+            SqsWorkerSettings settings,
+            SqsQueueRouting routing,
+            ObjectProvider<SqsAsyncClient> sqsAsync,
+            WorkerIdentity identity,
+            TaskLeaseReaper reaper
             ) {
+        this(sqs, sqsAsync.getIfAvailable(), queueName, claimRepo, metrics, autoStart, dlq, processor, settings, routing,
+                // a random id can't have held anything before this process started
+                identity.id(), identity.configured() ? reaper : null);
+    }
+
+    SqsWorkerLoop(
+            SqsClient sqs,
+            SqsAsyncClient sqsAsync,
+            String queueName,
+            TaskClaimRepository claimRepo,
+            TaskMetrics metrics,
+            boolean autoStart,
+            DeadLetterClient dlq,
+            TaskProcessor processor,
+            SqsWorkerSettings settings,
+            SqsQueueRouting routing
+    ) {
+        this(sqs, sqsAsync, queueName, claimRepo, metrics, autoStart, dlq, processor, settings, routing,
+                UUID.randomUUID().toString(), null);
+    }
+
+    SqsWorkerLoop(
+            SqsClient sqs,
+            SqsAsyncClient sqsAsync,
+            String queueName,
+            TaskClaimRepository claimRepo,
+            TaskMetrics metrics,
+            boolean autoStart,
+            DeadLetterClient dlq,
+            TaskProcessor processor,
+            SqsWorkerSettings settings,
+            SqsQueueRouting routing,
+            String workerId,
+            TaskLeaseReaper reaper
+    ) {
         this.sqs = sqs;
-        this.queueUrl = sqs.getQueueUrl(GetQueueUrlRequest.builder()
-                .queueName(queueName)
-                .build()).queueUrl();
+        this.sqsAsync = sqsAsync;
         this.claimRepo = claimRepo;
         this.metrics = metrics;
         this.autoStart = autoStart;
         this.dlq = dlq;
         this.processor = processor;
+        this.workerId = workerId;
+        this.leases = new TaskLeaseRenewer(claimRepo, workerId);
+        this.reaper = reaper;
+        this.concurrency = settings.concurrency();
+        this.buffer = new ArrayBlockingQueue<>(settings.prefetch());
+        this.bufferSpace = new Semaphore(settings.prefetch(), true);
+        this.workers = settings.virtualThreads()
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sqs-worker-", 0).factory())
+                : Executors.newFixedThreadPool(concurrency);
+        metrics.registerWorkerInFlight(this, SqsWorkerLoop::inFlight);
+        metrics.registerPrefetchBuffer(buffer, BlockingQueue::size);
+        this.completions = new TaskCompletionWriter(claimRepo, workerId,
+                settings.completionFlushIntervalMs(), settings.completionMaxBatch());
+        this.visibilityTimeoutSeconds = settings.visibilityTimeoutSeconds();
+        this.retryBackoffSeconds = settings.retryBackoffSeconds();
+        this.inPlaceRetryGraceSeconds = settings.inPlaceRetryGraceSeconds();
+        this.shutdownGraceMs = TimeUnit.SECONDS.toMillis(settings.shutdownGraceSeconds());
+        this.waitTimeSeconds = settings.waitTimeSeconds();
+
+        Set<String> queueNames = routing.queueNames(queueName);
+        int totalWeight = queueNames.stream().mapToInt(n -> routing.settingsFor(n).weight()).sum();
+        List<PolledQueue> polled = new ArrayList<>();
+        for (String name : queueNames) {
+            SqsQueueRouting.QueueSettings qs = routing.settingsFor(name);
+            String url = sqs.getQueueUrl(GetQueueUrlRequest.builder()
+                    .queueName(name)
+                    .build()).queueUrl();
+            // max-pollers is split by weight, but every queue keeps at least one long-poll
+            int maxPollers = Math.max(1, Math.round((float) settings.maxPollers() * qs.weight() / totalWeight));
+            PolledQueue q = new PolledQueue(name, url, maxPollers, qs.maxInFlight(),
+                    // Deletes are batched (DeleteMessageBatch) instead of one DeleteMessage per task
+                    new SqsAckBuffer(sqs, sqsAsync, url, metrics, settings.ackBatchSize(), settings.ackFlushIntervalMs()),
+                    // Keeps messages of long-running tasks invisible (ChangeMessageVisibilityBatch heartbeat)
+                    new VisibilityLeaseExtender(sqs, sqsAsync, url, metrics, visibilityTimeoutSeconds));
+            metrics.registerActivePollers(name, q.pollers, AdaptivePollerController::activePollers);
+            metrics.registerQueueInFlight(name, q, PolledQueue::inFlight);
+            polled.add(q);
+        }
+        this.queues = List.copyOf(polled);
+        this.defaultQueue = queues.get(0);
+        this.highPriorityQueue = queues.stream()
+                .filter(q -> q.name.equals(routing.highPriorityQueue()))
+                .findFirst().orElse(null);
+        this.strictPriority = routing.strictPriority() && highPriorityQueue != null;
+
+        int pollerThreads = queues.stream().mapToInt(q -> q.pollers.maxPollers()).sum();
+        // With the async client a poller only waits on a future, so it can be a virtual thread
+        this.loop = Executors.newFixedThreadPool(pollerThreads, sqsAsync != null
+                ? Thread.ofVirtual().name("sqs-poller-", 0).factory()
+                : Thread.ofPlatform().name("sqs-poller-", 0).factory());
 
         // Start background loop only if enabled
         if (this.autoStart) {
-            loop.submit(this::runLoop);
+            reclaimPreviousRun();
+            leases.start();
+            for (int i = 0; i < concurrency; i++) {
+                workers.execute(this::runWorker);
+            }
+            for (PolledQueue q : queues) {
+                for (int i = 0; i < q.pollers.maxPollers(); i++) {
+                    int index = i;
+                    loop.submit(() -> runLoop(q, index));
+                }
+            }
         }
     }
 
-    private void runLoop() {
-        log.info("SQS worker loop started. workerId={} queueUrl={}", workerId, queueUrl);
+    /** Tasks still held under our id can't be running anymore: hand them back before claiming new ones. */
+    private void reclaimPreviousRun() {
+        if (reaper == null) return;
+        try {
+            reaper.reclaimHeldBy(workerId);
+        } catch (Exception e) {
+            // not fatal: their leases run out and the reaper gets them then
+            log.error("Failed to reclaim tasks from this worker's previous run. workerId={}", workerId, e);
+        }
+    }
+
+    private void runLoop(PolledQueue q, int pollerIndex) {
+        log.info("SQS worker loop started. workerId={} queue={} poller={} concurrency={} prefetch={}",
+                workerId, q.name, pollerIndex, concurrency, buffer.remainingCapacity() + buffer.size());
 
         while (running) {
             try {
-                List<Message> messages = receiveMessages();
-                for (Message msg : messages) {
-                    metrics.incReceived();
-                    processMessage(msg);
+                // Scaled out: wait until the controller sees a backlog again
+                if (!q.pollers.isActive(pollerIndex)) {
+                    q.pollers.awaitActive(pollerIndex, 1000);
+                    continue;
+                }
+
+                // Strict priority: leave the buffer to the high-priority queue while it has a backlog
+                if (strictPriority && q != highPriorityQueue && highPriorityQueue.hasBacklog()) {
+                    sleepQuietly(STRICT_PRIORITY_BACKOFF_MS);
+                    continue;
+                }
+
+                // Only ask SQS for as many messages as this queue's cap and the buffer allow;
+                // blocks here (backpressure) while either is full.
+                int slots = q.reserve(MAX_RECEIVE_BATCH);
+                int reserved;
+                try {
+                    reserved = reserveSpace(slots);
+                } catch (InterruptedException e) {
+                    q.release(slots);
+                    throw e;
+                }
+                q.release(slots - reserved);
+
+                List<Message> messages;
+                try {
+                    messages = receiveMessages(q, reserved);
+                } catch (RuntimeException | InterruptedException e) {
+                    releaseReserved(q, reserved);
+                    throw e;
                 }
+                releaseReserved(q, reserved - messages.size());
+                long receivedAtMs = System.currentTimeMillis();
+                metrics.observeReceive(q.name, messages.size());
+                q.onReceived(messages.size());
+                q.pollers.onReceive(reserved, messages.size(), bufferSpace.availablePermits());
+
+                // One UPDATE for the whole batch; only messages we claimed take up buffer space
+                List<PrefetchedMessage> claimed;
+                try {
+                    claimed = claimBatch(q, messages, receivedAtMs);
+                } catch (RuntimeException e) {
+                    releaseReserved(q, messages.size());
+                    throw e;
+                }
+                releaseReserved(q, messages.size() - claimed.size());
+
+                for (PrefetchedMessage p : claimed) {
+                    // never blocks: we hold a permit for every message we put
+                    buffer.add(p);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             } catch (Exception e) {
                 // Keep loop alive; don’t crash the app on transient issues
                 log.error("SQS worker loop error. Will retry.", e);
@@ -85,60 +316,245 @@ public class SqsWorkerLoop implements DisposableBean {
             }
         }
 
-        log.info("SQS worker loop stopped. workerId={}", workerId);
+        log.info("SQS worker loop stopped. workerId={} queue={} poller={}", workerId, q.name, pollerIndex);
+    }
+
+    /**
+     * Blocks until at least one buffer slot is free, then grabs up to {max} slots without waiting.
+     * Returns the number of slots reserved; the caller must release the ones it doesn't fill.
+     */
+    private int reserveSpace(int max) throws InterruptedException {
+        bufferSpace.acquire();
+        int reserved = 1;
+        while (reserved < max && bufferSpace.tryAcquire()) {
+            reserved++;
+        }
+        return reserved;
+    }
+
+    private void releaseReserved(PolledQueue q, int count) {
+        bufferSpace.release(count);
+        q.release(count);
+    }
+
+    /** One processing worker: takes prefetched messages off the buffer until shutdown. */
+    private void runWorker() {
+        while (running) {
+            PrefetchedMessage next;
+            try {
+                next = buffer.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            bufferSpace.release();
+
+            busy.incrementAndGet();
+            try {
+                if (!running) {
+                    // took it just as the drain started: hand it back instead of starting it
+                    returnUnstarted(List.of(next));
+                    return;
+                }
+                inFlightTasks.add(next.task().id());
+                processPrefetched(next, System.currentTimeMillis());
+            } catch (Exception e) {
+                // DB/SQS errors outside the processor; message becomes visible again after the timeout
+                log.error("Unexpected error while processing SQS message. messageId={}", next.message().messageId(), e);
+            } finally {
+                inFlightTasks.remove(next.task().id());
+                busy.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Parses a received batch and claims all its tasks with a single claimEnqueuedTasks call.
+     * Bad bodies are deleted, unclaimed tasks are left for redelivery (same as the single claim),
+     * and the claimed ones are returned with their visibility already being extended.
+     */
+    List<PrefetchedMessage> claimBatch(PolledQueue q, List<Message> messages, long receivedAtMs) {
+        Map<Long, Message> byTaskId = new LinkedHashMap<>();
+        for (Message msg : messages) {
+            metrics.incReceived(q.name);
+            Long taskId = parseTaskId(q, msg);
+            if (taskId == null) continue;
+            if (byTaskId.putIfAbsent(taskId, msg) != null) {
+                // same task delivered twice in one receive; only one copy can win the claim
+                metrics.incClaimFailed();
+            }
+        }
+        if (byTaskId.isEmpty()) return List.of();
+
+        Map<Long, TaskExecutionContext> claimedById = new LinkedHashMap<>();
+        for (TaskExecutionContext task : claimRepo.claimEnqueuedTasks(byTaskId.keySet(), workerId)) {
+            claimedById.put(task.id(), task);
+        }
+
+        List<PrefetchedMessage> claimed = new ArrayList<>(claimedById.size());
+        for (Map.Entry<Long, Message> e : byTaskId.entrySet()) {
+            TaskExecutionContext task = claimedById.get(e.getKey());
+            if (task == null) {
+                metrics.incClaimFailed();
+                log.info("Task not claimed (already claimed/processed or not due). Leaving message for retry. taskId={}", e.getKey());
+                continue;
+            }
+            // once claimed, we count this as "processed/started"
+            metrics.incTasksProcessed();
+            leases.hold(task.id());
+            // We own the task now: keep the message invisible while it waits in the buffer and runs
+            q.leases.track(e.getValue().receiptHandle(), receivedAtMs);
+            q.started();
+            claimed.add(new PrefetchedMessage(q, e.getValue(), task, receivedAtMs));
+        }
+        return claimed;
+    }
+
+    /** claimBatch on the default queue. */
+    List<PrefetchedMessage> claimBatch(List<Message> messages, long receivedAtMs) {
+        return claimBatch(defaultQueue, messages, receivedAtMs);
+    }
+
+    void processPrefetched(PrefetchedMessage next, long startedAtMs) {
+        long waitedMs = startedAtMs - next.receivedAtMs();
+        metrics.observePrefetchWait(Duration.ofMillis(Math.max(0, waitedMs)));
+
+        PolledQueue q = next.queue();
+        String handle = next.message().receiptHandle();
+        if (q.leases.isExpired(handle, startedAtMs)) {
+            // The heartbeat couldn't keep it invisible. We still hold the DB claim, so run it;
+            // a redelivered copy will fail the claim.
+            metrics.incPrefetchExpired();
+            log.warn("Prefetched message visibility expired before processing started. messageId={} waitedMs={}",
+                    next.message().messageId(), waitedMs);
+        }
+        try {
+            runClaimedTask(q, next.message(), next.task());
+        } finally {
+            q.leases.untrack(handle);
+            q.finished();
+            leases.release(next.task().id());
+        }
+    }
+
+    int inFlight() {
+        return busy.get();
+    }
+
+    /**
+     * Gives back messages that were claimed and prefetched but never started: releases the DB
+     * claims first, then sets visibility to 0 so another worker can receive them right away.
+     */
+    void returnUnstarted(List<PrefetchedMessage> unstarted) {
+        if (unstarted.isEmpty()) return;
+        unstarted.forEach(p -> leases.release(p.task().id()));
+
+        try {
+            claimRepo.releaseClaims(unstarted.stream().map(p -> p.task().id()).toList(), workerId);
+        } catch (Exception e) {
+            // rows stay PROCESSING for this worker until their leases run out and the reaper takes them back
+            log.error("Failed to release claims of unstarted tasks. count={}", unstarted.size(), e);
+        }
+        Map<PolledQueue, List<PrefetchedMessage>> byQueue = new LinkedHashMap<>();
+        for (PrefetchedMessage p : unstarted) {
+            byQueue.computeIfAbsent(p.queue(), k -> new ArrayList<>()).add(p);
+        }
+        byQueue.forEach((q, messages) -> {
+            q.leases.release(messages.stream().map(p -> p.message().receiptHandle()).toList());
+            messages.forEach(p -> q.finished());
+        });
+        log.info("Returned unstarted messages to the queue. count={}", unstarted.size());
     }
 
-    //If the queue is empty, don’t reply immediately — wait up to 20 seconds for messages.
-    private List<Message> receiveMessages() {
+    //If the queue is empty, don’t reply immediately — wait up to waitTimeSeconds (20 by default) for messages.
+    private List<Message> receiveMessages(PolledQueue q, int maxMessages) throws InterruptedException {
         ReceiveMessageRequest req = ReceiveMessageRequest.builder()
-                .queueUrl(queueUrl)
-                .waitTimeSeconds(20)          // long poll
-                .maxNumberOfMessages(5)       // batch
-                .visibilityTimeout(30)        // seconds; tune later
+                .queueUrl(q.url)
+                .waitTimeSeconds(waitTimeSeconds) // long poll
+                .maxNumberOfMessages(maxMessages) // batch
+                .visibilityTimeout(visibilityTimeoutSeconds) // extended by the heartbeat while running
                 .build();
 
+        if (sqsAsync != null) {
+            return await(sqsAsync.receiveMessage(req)).messages();
+        }
         ReceiveMessageResponse resp = sqs.receiveMessage(req);
         return resp.messages();
     }
 
+    // Like join(), but interruptible so shutdownNow() can stop a poller mid long-poll
+    private static <T> T await(CompletableFuture<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    /** A received and already-claimed message waiting in the prefetch buffer. */
+    record PrefetchedMessage(PolledQueue queue, Message message, TaskExecutionContext task, long receivedAtMs) {}
+
     void processMessage(Message msg) {
-        String body = msg.body(); // we expect taskId only
-        long taskId;
+        processMessage(msg, System.currentTimeMillis());
+    }
 
+    /** Claims and runs a single message inline (same path as a one-message batch). */
+    void processMessage(Message msg, long receivedAtMs) {
         try {
-            taskId = Long.parseLong(body.trim());
-        } catch (Exception parseErr) {
-            log.warn("Bad message body='{}'. Deleting message.", body);
-            deleteMessage(msg);
+            defaultQueue.reserve(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return;
         }
+        List<PrefetchedMessage> claimed;
+        try {
+            claimed = claimBatch(defaultQueue, List.of(msg), receivedAtMs);
+        } catch (RuntimeException e) {
+            defaultQueue.release(1);
+            throw e;
+        }
+        if (claimed.isEmpty()) defaultQueue.release(1);
+        for (PrefetchedMessage p : claimed) {
+            processPrefetched(p, System.currentTimeMillis());
+        }
+    }
 
-        // 1) Claim in DB (idempotency gate)
-        boolean claimed = claimRepo.claimEnqueuedTask(taskId, workerId);
-        if (!claimed) {
-            metrics.incClaimFailed();
-            log.info("Task not claimed (already claimed/processed or not due). Leaving message for retry. taskId={}", taskId);
-            return;
+    /** Returns the task id, or null after deleting a message whose body isn't one. */
+    private Long parseTaskId(PolledQueue q, Message msg) {
+        String body = msg.body(); // we expect taskId only
+        try {
+            return Long.parseLong(body.trim());
+        } catch (Exception parseErr) {
+            log.warn("Bad message body='{}'. Deleting message. queue={}", body, q.name);
+            deleteMessage(q, msg);
+            return null;
         }
-        // once claimed, we count this as "processed/started"
-        metrics.incTasksProcessed();
+    }
+
+    private void runClaimedTask(PolledQueue q, Message msg, TaskExecutionContext task) {
+        long taskId = task.id();
 
-        // 2) Observe schedule lag (for resume-grade metrics)
-        claimRepo.getScheduledFor(taskId).ifPresent(scheduledFor -> {
-            Duration lag = Duration.between(scheduledFor, Instant.now());
+        // 2) Observe schedule lag (for resume-grade metrics); scheduled_for came back with the claim
+        if (task.scheduledFor() != null) {
+            Duration lag = Duration.between(task.scheduledFor(), Instant.now());
             if (!lag.isNegative()) {
                 metrics.observeScheduleLag(lag);
             }
-        });
+        }
 
         // Configure retry backoff
-        long backoffSeconds = 30;
+        long backoffSeconds = retryBackoffSeconds;
+        boolean retryInPlace = inPlaceRetryGraceSeconds > 0 && backoffSeconds <= MAX_VISIBILITY_SECONDS;
 
         // 3) Do the work + complete DB lifecycle
         try {
-            processor.process(taskId);
+            processor.process(task);
             // Mark succeeded in DB
-            boolean updated = claimRepo.markSucceeded(taskId, workerId);
+            boolean updated = completions.markSucceeded(taskId);
             if (!updated) {
                 // DB didn't accept update (lost lock, wrong worker_id/status, etc.)
                 // Do NOT delete the message; allow retry/redelivery.
@@ -148,16 +564,16 @@ public class SqsWorkerLoop implements DisposableBean {
             metrics.incTasksSucceeded();
 
             // Delete only after DB succeeded
-            deleteMessage(msg);
+            deleteMessage(q, msg);
 
         } catch (Exception ex) {
             metrics.incTasksFailed();
             log.error("Task processing failed. taskId={}", taskId, ex);
-            var outcome = claimRepo.markFailedAndRescheduleOutcome(
+            var outcome = completions.markFailedAndReschedule(
                     taskId,
-                    workerId,
                     ex.getMessage(),
-                    backoffSeconds
+                    backoffSeconds,
+                    retryInPlace ? inPlaceRetryGraceSeconds : 0
             );
 
             if (!outcome.updated()) {
@@ -183,36 +599,35 @@ public class SqsWorkerLoop implements DisposableBean {
                     log.error("Failed to publish to DLQ. Deleting original SQS message anyway to avoid poison-loop. taskId={}", taskId, dlqEx);
                     // (optional) add a metric like metrics.incDlqPublishFailed();
                 }
+            } else if (retryInPlace) {
+                // Keep the message: SQS hands it back once the backoff is over, and the enqueue
+                // lock set above stops DueTaskEnqueuer from sending a second copy.
+                if (q.leases.retryAfter(msg.receiptHandle(), (int) backoffSeconds)) {
+                    metrics.incRetriedInPlace(q.name);
+                } else {
+                    // It comes back after its current visibility instead; the claim fails until
+                    // scheduled_for, and the enqueuer re-sends if it's still unclaimed after the grace.
+                    log.warn("Could not delay message for retry; it will be redelivered early. taskId={}", taskId);
+                }
+                return;
             }
-            // Implementation Before adding DLQ
-            // Record failure + reschedule in DB
-//            boolean updated = claimRepo.markFailedAndReschedule(
-//                    taskId,
-//                    workerId,
-//                    ex.getMessage(),
-//                    backoffSeconds
-//            );
-//
-//            if (!updated) {
-//                // If DB update didn't happen, do NOT delete message.
-//                // Otherwise you'd lose the task without recording failure/reschedule.
-//                log.warn("markFailedAndReschedule did not update row. Not deleting SQS message. taskId={} workerId={}", taskId, workerId);
-//                return;
-//            }
-
             // Delete only after DB succeeded
-            deleteMessage(msg);
+            deleteMessage(q, msg);
 
             // Do NOT rethrow; keep worker loop healthy
         }
     }
 
-    private void deleteMessage(Message msg) {
-        sqs.deleteMessage(DeleteMessageRequest.builder()
-                .queueUrl(queueUrl)
-                .receiptHandle(msg.receiptHandle())
-                .build());
-        metrics.incDeleted();
+    // Buffered: the actual DeleteMessageBatch happens on the next size/time flush
+    private void deleteMessage(PolledQueue q, Message msg) {
+        q.acks.add(msg.receiptHandle());
+    }
+
+    /** Sends all buffered deletes now. */
+    void flushAcks() {
+        for (PolledQueue q : queues) {
+            q.acks.flush();
+        }
     }
 
     private void sleepQuietly(long ms) {
@@ -225,27 +640,88 @@ public class SqsWorkerLoop implements DisposableBean {
 
     @Override
     public void destroy() {
+        log.info("SQS worker draining. workerId={} inFlight={} prefetched={} graceMs={}",
+                workerId, busy.get(), buffer.size(), shutdownGraceMs);
         running = false;
+
+        // 1) Stop receiving. Let a poller that's mid-claim finish putting its batch in the buffer.
         loop.shutdownNow();
+        awaitQuietly(loop, 5_000);
+
+        // 2) Prefetched but not started: back to the queue now instead of after the visibility timeout
+        List<PrefetchedMessage> unstarted = new ArrayList<>();
+        buffer.drainTo(unstarted);
+        returnUnstarted(unstarted);
+
+        // 3) Let running tasks finish; the heartbeat keeps their messages invisible meanwhile
+        long deadline = System.currentTimeMillis() + shutdownGraceMs;
+        while (busy.get() > 0 && System.currentTimeMillis() < deadline && !Thread.currentThread().isInterrupted()) {
+            sleepQuietly(50);
+        }
+        if (busy.get() > 0) {
+            log.warn("Shutdown grace period over; interrupting running tasks. taskIds={}", inFlightTasks);
+        }
+        workers.shutdownNow();
+        awaitQuietly(workers, 5_000);
+        leases.close(); // nothing runs anymore; what's still held gets reclaimed
+
+        // 4) Write out what the finished tasks left behind
+        completions.close(); // before acks: deletes may still be waiting on these updates
+        for (PolledQueue q : queues) {
+            q.close(); // acks first: don't lose buffered deletes on shutdown
+        }
+        log.info("SQS worker stopped. workerId={}", workerId);
+    }
+
+    private static void awaitQuietly(ExecutorService executor, long timeoutMs) {
+        try {
+            executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     // for integration testing
     void runOnce() {
         if (Thread.currentThread().isInterrupted()) return;
 
+        PolledQueue q = defaultQueue;
         List<Message> messages;
+        int slots;
         try {
-            messages = receiveMessages();
+            slots = q.reserve(MAX_RECEIVE_BATCH);
+            try {
+                messages = receiveMessages(q, slots);
+            } catch (RuntimeException | InterruptedException e) {
+                q.release(slots);
+                throw e;
+            }
         } catch (software.amazon.awssdk.core.exception.AbortedException e) {
             // happens if the thread gets interrupted while blocked in AWS SDK
             Thread.currentThread().interrupt();
             return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
         }
+        q.release(slots - messages.size());
+        metrics.observeReceive(q.name, messages.size());
 
-        for (Message msg : messages) {
-            if (Thread.currentThread().isInterrupted()) return;
-            metrics.incReceived();
-            processMessage(msg);
+        try {
+            List<PrefetchedMessage> claimed;
+            try {
+                claimed = claimBatch(q, messages, System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                q.release(messages.size());
+                throw e;
+            }
+            q.release(messages.size() - claimed.size());
+            // already claimed in the DB, so run them even if we get interrupted
+            for (PrefetchedMessage p : claimed) {
+                processPrefetched(p, System.currentTimeMillis());
+            }
+        } finally {
+            flushAcks();
         }
     }
 }
@@ -0,0 +1,67 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+/**
+ * Tuning knobs for {@link SqsWorkerLoop} (bound from dtp.sqs.* in QueueConfig).
+ *
+ * concurrency:              max messages processed at the same time on this node
+ * virtualThreads:           run processing on virtual threads (false = fixed platform pool)
+ * ackBatchSize:             deletes per DeleteMessageBatch call (1..10)
+ * ackFlushIntervalMs:       max time a finished message waits for its delete
+ * visibilityTimeoutSeconds: visibility requested on receive; the heartbeat extends it for long tasks
+ * maxPollers:               max concurrent ReceiveMessage callers; scaled down to 1 when the queue is empty
+ * waitTimeSeconds:          long-poll wait per ReceiveMessage call (0..20)
+ * prefetch:                 messages received ahead of the workers; polling pauses while this many are waiting
+ * completionFlushIntervalMs: group-commit window for task completions (0 = one UPDATE per task)
+ * completionMaxBatch:       completions that trigger a group commit before the window ends
+ * shutdownGraceSeconds:     on shutdown, how long running tasks may finish before being interrupted
+ * retryBackoffSeconds:      delay before a failed task is retried
+ * inPlaceRetryGraceSeconds: retry by hiding the same message for the backoff (ChangeMessageVisibility);
+ *                           the enqueuer only re-sends if it isn't claimed within backoff + this (0 = delete + re-send,
+ *                           the default). Every in-place retry is another SQS receive of the same message, so the
+ *                           queue's redrive maxReceiveCount must be above max_attempts, or SQS dead-letters the
+ *                           message before the DB attempt limit is reached
+ */
+public record SqsWorkerSettings(
+        int concurrency,
+        boolean virtualThreads,
+        int ackBatchSize,
+        long ackFlushIntervalMs,
+        int visibilityTimeoutSeconds,
+        int maxPollers,
+        int waitTimeSeconds,
+        int prefetch,
+        long completionFlushIntervalMs,
+        int completionMaxBatch,
+        int shutdownGraceSeconds,
+        long retryBackoffSeconds,
+        long inPlaceRetryGraceSeconds
+) {
+
+    public SqsWorkerSettings {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("dtp.sqs.worker.concurrency must be >= 1");
+        }
+        if (maxPollers < 1) {
+            throw new IllegalArgumentException("dtp.sqs.worker.max-pollers must be >= 1");
+        }
+        if (waitTimeSeconds < 0 || waitTimeSeconds > 20) {
+            throw new IllegalArgumentException("dtp.sqs.worker.wait-time-seconds must be between 0 and 20");
+        }
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("dtp.sqs.worker.prefetch must be >= 1");
+        }
+        if (shutdownGraceSeconds < 0) {
+            throw new IllegalArgumentException("dtp.sqs.worker.shutdown-grace-seconds must be >= 0");
+        }
+        if (retryBackoffSeconds < 0 || inPlaceRetryGraceSeconds < 0) {
+            throw new IllegalArgumentException("dtp.sqs.retry.backoff-seconds and in-place-grace-seconds must be >= 0");
+        }
+        if (completionFlushIntervalMs < 0 || completionMaxBatch < 1) {
+            throw new IllegalArgumentException("dtp.sqs.completion.flush-interval-ms must be >= 0 and max-batch >= 1");
+        }
+    }
+
+    public static SqsWorkerSettings defaults() {
+        return new SqsWorkerSettings(10, true, 10, 100, 30, 4, 20, 10, 0, 100, 30, 30, 0);
+    }
+}
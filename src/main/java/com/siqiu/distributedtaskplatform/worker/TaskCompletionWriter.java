@@ -0,0 +1,175 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository.FailOutcome;
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository.FailedCompletion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit for task completions: workers hand in their outcome and wait, and every
+ * flushInterval (or once maxBatch outcomes are queued) all successes go out as one UPDATE and
+ * all failures as another, instead of one autocommit UPDATE (and WAL flush) per task.
+ *
+ * Each caller still gets its own per-task result back, so the "delete the SQS message only
+ * after the DB update" rule holds exactly as with the single-row calls.
+ *
+ * flushIntervalMs == 0 turns batching off: calls go straight to the single-row repository methods.
+ */
+class TaskCompletionWriter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskCompletionWriter.class);
+
+    private record Success(long taskId, CompletableFuture<Boolean> result) {}
+
+    private record Failure(FailedCompletion completion, CompletableFuture<FailOutcome> result) {}
+
+    private final TaskClaimRepository claimRepo;
+    private final String workerId;
+    private final int maxBatch;
+    private final boolean batching;
+
+    private final Object bufferLock = new Object();
+    private List<Success> successes = new ArrayList<>();
+    private List<Failure> failures = new ArrayList<>();
+
+    // one flush at a time, so the two UPDATEs of a batch don't interleave with the next batch
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final ScheduledExecutorService flusher;
+
+    TaskCompletionWriter(TaskClaimRepository claimRepo, String workerId, long flushIntervalMs, int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("completion max batch must be >= 1");
+        }
+        this.claimRepo = claimRepo;
+        this.workerId = workerId;
+        this.maxBatch = maxBatch;
+        this.batching = flushIntervalMs > 0;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "task-completion-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        if (batching) {
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Same contract as TaskClaimRepository.markSucceeded; blocks until the batch is written. */
+    boolean markSucceeded(long taskId) {
+        if (!batching) {
+            return claimRepo.markSucceeded(taskId, workerId);
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        boolean full;
+        synchronized (bufferLock) {
+            successes.add(new Success(taskId, result));
+            full = successes.size() + failures.size() >= maxBatch;
+        }
+        if (full) flush();
+        return await(result);
+    }
+
+    FailOutcome markFailedAndReschedule(long taskId, String errorMsg, long backoffSeconds) {
+        return markFailedAndReschedule(taskId, errorMsg, backoffSeconds, 0);
+    }
+
+    /** Same contract as TaskClaimRepository.markFailedAndRescheduleOutcome; blocks until written. */
+    FailOutcome markFailedAndReschedule(long taskId, String errorMsg, long backoffSeconds, long holdEnqueueSeconds) {
+        if (!batching) {
+            return claimRepo.markFailedAndRescheduleOutcome(taskId, workerId, errorMsg, backoffSeconds, holdEnqueueSeconds);
+        }
+        CompletableFuture<FailOutcome> result = new CompletableFuture<>();
+        boolean full;
+        synchronized (bufferLock) {
+            failures.add(new Failure(new FailedCompletion(taskId, errorMsg, backoffSeconds, holdEnqueueSeconds), result));
+            full = successes.size() + failures.size() >= maxBatch;
+        }
+        if (full) flush();
+        return await(result);
+    }
+
+    /** Writes everything queued so far and completes the waiting callers. */
+    void flush() {
+        flushLock.lock();
+        try {
+            List<Success> s;
+            List<Failure> f;
+            synchronized (bufferLock) {
+                if (successes.isEmpty() && failures.isEmpty()) return;
+                s = successes;
+                f = failures;
+                successes = new ArrayList<>();
+                failures = new ArrayList<>();
+            }
+            if (!s.isEmpty()) writeSuccesses(s);
+            if (!f.isEmpty()) writeFailures(f);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void writeSuccesses(List<Success> batch) {
+        Set<Long> updated;
+        try {
+            updated = claimRepo.markSucceededBatch(batch.stream().map(Success::taskId).toList(), workerId);
+        } catch (Exception e) {
+            // callers see the same exception the single-row call would have thrown
+            log.warn("Batched markSucceeded failed. size={}", batch.size(), e);
+            batch.forEach(x -> x.result().completeExceptionally(e));
+            return;
+        }
+        batch.forEach(x -> x.result().complete(updated.contains(x.taskId())));
+    }
+
+    private void writeFailures(List<Failure> batch) {
+        Map<Long, FailOutcome> outcomes;
+        try {
+            outcomes = claimRepo.markFailedAndRescheduleBatch(batch.stream().map(Failure::completion).toList(), workerId);
+        } catch (Exception e) {
+            log.warn("Batched markFailedAndReschedule failed. size={}", batch.size(), e);
+            batch.forEach(x -> x.result().completeExceptionally(e));
+            return;
+        }
+        FailOutcome notUpdated = new FailOutcome(false, false, 0, 0);
+        batch.forEach(x -> x.result().complete(outcomes.getOrDefault(x.completion().taskId(), notUpdated)));
+    }
+
+    private static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            // never let the scheduled flusher die
+            log.error("Completion flush failed", e);
+        }
+    }
+
+    /** Stops the timer and writes whatever is still queued (used on shutdown). */
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        flush();
+    }
+}
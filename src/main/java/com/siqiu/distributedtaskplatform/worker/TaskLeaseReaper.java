@@ -0,0 +1,142 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
+import com.siqiu.distributedtaskplatform.queue.DeadLetterClient;
+import com.siqiu.distributedtaskplatform.queue.DeadTaskEvent;
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository.ReclaimedTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Takes PROCESSING tasks back from workers that stopped renewing their lease (crashed, hung, or
+ * partitioned from the DB) and puts them back in line: ENQUEUED in SQS mode, so a redelivered
+ * message can claim them again and the enqueuer sends a fresh one, or FAILED-and-due in DB mode.
+ * The lost run counts as an attempt; a task that was on its last one becomes DEAD.
+ *
+ * Every node runs one. Each pass reclaims in batches of {batchSize} with SKIP LOCKED, so
+ * concurrent reapers split the work instead of blocking on each other.
+ */
+@Component
+public class TaskLeaseReaper implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskLeaseReaper.class);
+
+    private final TaskClaimRepository claimRepo;
+    private final TaskMetrics metrics;
+    private final DeadLetterClient dlq; // null in DB mode: DEAD tasks just stay DEAD
+    private final String retryStatus;
+    private final int batchSize;
+    private final long intervalMs;
+    private final Thread thread; // null = not reaping
+    private volatile boolean running = true;
+
+    public TaskLeaseReaper(
+            TaskClaimRepository claimRepo,
+            TaskMetrics metrics,
+            ObjectProvider<DeadLetterClient> dlq,
+            @Value("${dtp.queue.mode:db}") String queueMode,
+            @Value("${dtp.worker.reaper.batch-size:100}") int batchSize,
+            @Value("${dtp.worker.reaper.interval-ms:10000}") long intervalMs,
+            @Value("${dtp.worker.reaper.enabled:true}") boolean enabled
+    ) {
+        if (batchSize < 1 || intervalMs < 1) {
+            throw new IllegalArgumentException("dtp.worker.reaper.batch-size and interval-ms must be >= 1");
+        }
+        boolean sqsMode = "sqs".equalsIgnoreCase(queueMode);
+        this.claimRepo = claimRepo;
+        this.metrics = metrics;
+        this.dlq = sqsMode ? dlq.getIfAvailable() : null;
+        this.retryStatus = sqsMode ? "ENQUEUED" : "FAILED";
+        this.batchSize = batchSize;
+        this.intervalMs = intervalMs;
+        if (enabled) {
+            this.thread = Thread.ofPlatform().name("task-lease-reaper").daemon(true).unstarted(this::run);
+            this.thread.start();
+        } else {
+            this.thread = null;
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                reapOnce();
+            } catch (Exception e) {
+                log.error("Lease reaper pass failed; retrying in {}ms", intervalMs, e);
+            }
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /** One pass: reclaims expired leases batch by batch until a batch comes back short. */
+    int reapOnce() {
+        int total = 0;
+        List<ReclaimedTask> batch;
+        do {
+            batch = claimRepo.reclaimExpiredLeases(batchSize, retryStatus);
+            handle(batch);
+            total += batch.size();
+        } while (batch.size() == batchSize && running);
+
+        if (total > 0) {
+            log.warn("Reclaimed tasks with expired processing leases. count={}", total);
+        }
+        return total;
+    }
+
+    /**
+     * Called by a worker before it starts: anything still held under its id is left over from its
+     * previous run, so there's no need to wait for those leases to expire.
+     */
+    public int reclaimHeldBy(String workerId) {
+        List<ReclaimedTask> reclaimed = claimRepo.reclaimHeldBy(workerId, retryStatus);
+        handle(reclaimed);
+        if (!reclaimed.isEmpty()) {
+            log.warn("Reclaimed tasks left over from this worker's previous run. workerId={} count={}",
+                    workerId, reclaimed.size());
+        }
+        return reclaimed.size();
+    }
+
+    private void handle(List<ReclaimedTask> reclaimed) {
+        if (reclaimed.isEmpty()) return;
+        metrics.incLeasesReclaimed(reclaimed.size());
+
+        for (ReclaimedTask t : reclaimed) {
+            if (!t.dead() || dlq == null) continue;
+            metrics.incTasksDeadLettered();
+            try {
+                dlq.publishDeadTask(new DeadTaskEvent(
+                        t.taskId(),
+                        t.workerId(),
+                        t.attemptCount(),
+                        t.maxAttempts(),
+                        "Processing lease lost",
+                        Instant.now()
+                ));
+            } catch (Exception e) {
+                // best effort, like the worker's own DLQ publish; the row is DEAD either way
+                log.error("Failed to publish reclaimed dead task to DLQ. taskId={}", t.taskId(), e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+}
@@ -0,0 +1,84 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the processing leases of a worker's claimed tasks alive: every third of the lease, one
+ * renewLeases UPDATE covers everything the worker holds (claimed, prefetched or running), instead
+ * of a heartbeat per task. If the worker dies the renewals stop and TaskLeaseReaper takes the
+ * tasks back once their leases run out.
+ */
+public class TaskLeaseRenewer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskLeaseRenewer.class);
+
+    private final TaskClaimRepository claimRepo;
+    private final String workerId;
+    private final Set<Long> held = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService renewer;
+
+    public TaskLeaseRenewer(TaskClaimRepository claimRepo, String workerId) {
+        this.claimRepo = claimRepo;
+        this.workerId = workerId;
+        this.renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "task-lease-renewer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Starts the periodic renewal (the worker's background loops call this when they start). */
+    public void start() {
+        long intervalMs = Math.max(1, TimeUnit.SECONDS.toMillis(claimRepo.leaseSeconds()) / 3);
+        renewer.scheduleWithFixedDelay(this::renewQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** The worker claimed {taskId}: keep its lease alive until release(). */
+    public void hold(long taskId) {
+        held.add(taskId);
+    }
+
+    public void release(long taskId) {
+        held.remove(taskId);
+    }
+
+    public int size() {
+        return held.size();
+    }
+
+    void renew() {
+        List<Long> ids = List.copyOf(held);
+        if (ids.isEmpty()) return;
+
+        Set<Long> renewed = claimRepo.renewLeases(ids, workerId);
+        if (renewed.size() < ids.size()) {
+            // finished between the copy and the UPDATE, or reclaimed: we don't own these anymore
+            List<Long> lost = ids.stream().filter(id -> !renewed.contains(id)).toList();
+            lost.forEach(held::remove);
+            log.debug("Leases not renewed (no longer held by this worker). workerId={} taskIds={}", workerId, lost);
+        }
+    }
+
+    private void renewQuietly() {
+        try {
+            renew();
+        } catch (Exception e) {
+            // keep going: the lease is several intervals long, so one missed renewal doesn't lose it
+            log.warn("Lease renewal failed. workerId={} held={}", workerId, held.size(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        renewer.shutdownNow();
+    }
+}
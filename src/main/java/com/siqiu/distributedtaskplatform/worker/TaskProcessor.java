@@ -1,5 +1,12 @@
 package com.siqiu.distributedtaskplatform.worker;
 
+import com.siqiu.distributedtaskplatform.task.TaskExecutionContext;
+
 public interface TaskProcessor {
     void process(long taskId);
+
+    /** Called by the worker with the row returned by the claim; override to use type/payload directly. */
+    default void process(TaskExecutionContext task) {
+        process(task.id());
+    }
 }
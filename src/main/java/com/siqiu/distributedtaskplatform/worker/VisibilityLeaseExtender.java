@@ -0,0 +1,273 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heartbeat for long-running tasks: keeps the SQS message invisible while its task is still running.
+ *
+ * Every visibilityTimeout/3 we look at the in-flight receipt handles and, for those with less than
+ * half of the timeout left, push visibility out by another full timeout with ChangeMessageVisibilityBatch.
+ * Short tasks finish before they ever need an extension, so they cost no extra calls.
+ *
+ * SQS caps the total invisibility of a received message at 12h; we stop extending after that.
+ *
+ * With an SqsAsyncClient the heartbeat only fires the batch calls; leases are updated when they complete.
+ */
+class VisibilityLeaseExtender implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(VisibilityLeaseExtender.class);
+
+    static final int MAX_BATCH = 10; // SQS limit for ChangeMessageVisibilityBatch
+    static final long MAX_LEASE_MS = TimeUnit.HOURS.toMillis(12);
+
+    private static final class Lease {
+        final long receivedAtMs;
+        volatile long visibleUntilMs;
+
+        Lease(long receivedAtMs, long visibleUntilMs) {
+            this.receivedAtMs = receivedAtMs;
+            this.visibleUntilMs = visibleUntilMs;
+        }
+    }
+
+    private final SqsClient sqs;
+    private final SqsAsyncClient sqsAsync; // null = sync client
+    private final String queueUrl;
+    private final String queueTag; // metrics tag
+    private final TaskMetrics metrics;
+    private final int visibilityTimeoutSeconds;
+    private final Clock clock;
+
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeat;
+
+    VisibilityLeaseExtender(SqsClient sqs, String queueUrl, TaskMetrics metrics, int visibilityTimeoutSeconds) {
+        this(sqs, null, queueUrl, metrics, visibilityTimeoutSeconds, Clock.systemUTC(), true);
+    }
+
+    VisibilityLeaseExtender(
+            SqsClient sqs,
+            SqsAsyncClient sqsAsync,
+            String queueUrl,
+            TaskMetrics metrics,
+            int visibilityTimeoutSeconds
+    ) {
+        this(sqs, sqsAsync, queueUrl, metrics, visibilityTimeoutSeconds, Clock.systemUTC(), true);
+    }
+
+    VisibilityLeaseExtender(
+            SqsClient sqs,
+            String queueUrl,
+            TaskMetrics metrics,
+            int visibilityTimeoutSeconds,
+            Clock clock,
+            boolean startHeartbeat
+    ) {
+        this(sqs, null, queueUrl, metrics, visibilityTimeoutSeconds, clock, startHeartbeat);
+    }
+
+    VisibilityLeaseExtender(
+            SqsClient sqs,
+            SqsAsyncClient sqsAsync,
+            String queueUrl,
+            TaskMetrics metrics,
+            int visibilityTimeoutSeconds,
+            Clock clock,
+            boolean startHeartbeat
+    ) {
+        if (visibilityTimeoutSeconds < 3) {
+            throw new IllegalArgumentException("visibility timeout must be >= 3 seconds");
+        }
+        this.sqs = sqs;
+        this.sqsAsync = sqsAsync;
+        this.queueUrl = queueUrl;
+        this.queueTag = TaskMetrics.queueTag(queueUrl);
+        this.metrics = metrics;
+        this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+        this.clock = clock;
+
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sqs-visibility-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        if (startHeartbeat) {
+            long intervalMs = TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) / 3;
+            heartbeat.scheduleWithFixedDelay(this::heartbeatQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Start extending this message. receivedAtMs = when ReceiveMessage returned it. */
+    void track(String receiptHandle, long receivedAtMs) {
+        long visibleUntil = receivedAtMs + TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds);
+        leases.put(receiptHandle, new Lease(receivedAtMs, visibleUntil));
+    }
+
+    /** Stop extending (task finished, whatever the outcome). */
+    void untrack(String receiptHandle) {
+        leases.remove(receiptHandle);
+    }
+
+    /** True if we know the message's visibility ran out (another consumer may have it now). */
+    boolean isExpired(String receiptHandle, long nowMs) {
+        Lease lease = leases.get(receiptHandle);
+        return lease != null && lease.visibleUntilMs <= nowMs;
+    }
+
+    int trackedCount() {
+        return leases.size();
+    }
+
+    /** One heartbeat round: extend every lease that is past half of its visibility window. */
+    void heartbeat() {
+        long now = clock.millis();
+        long threshold = TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) / 2;
+
+        List<String> due = new ArrayList<>();
+        for (Map.Entry<String, Lease> e : leases.entrySet()) {
+            Lease lease = e.getValue();
+            if (lease.visibleUntilMs - now >= threshold) continue;
+            if (now - lease.receivedAtMs + TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) > MAX_LEASE_MS) {
+                continue; // SQS would reject it; the message will be redelivered
+            }
+            due.add(e.getKey());
+        }
+
+        for (int from = 0; from < due.size(); from += MAX_BATCH) {
+            extend(due.subList(from, Math.min(from + MAX_BATCH, due.size())), now);
+        }
+    }
+
+    /**
+     * Stops tracking these messages and makes them visible again right away (visibility 0),
+     * for messages we received but won't process (shutdown). Waits for the calls to finish.
+     */
+    void release(List<String> handles) {
+        handles.forEach(leases::remove);
+
+        List<CompletableFuture<?>> calls = new ArrayList<>();
+        for (int from = 0; from < handles.size(); from += MAX_BATCH) {
+            List<String> chunk = handles.subList(from, Math.min(from + MAX_BATCH, handles.size()));
+            calls.add(changeVisibility(chunk, 0).whenComplete((resp, err) -> {
+                if (err != null) {
+                    // they come back on their own once the current visibility runs out
+                    log.warn("Returning messages to the queue failed. size={}", chunk.size(), err);
+                } else if (!resp.failed().isEmpty()) {
+                    log.warn("Returning messages to the queue partially failed. failed={}", resp.failed().size());
+                }
+            }));
+        }
+        for (CompletableFuture<?> call : calls) {
+            try {
+                call.join();
+            } catch (Exception ignored) {
+                // logged above
+            }
+        }
+    }
+
+    /**
+     * Stops tracking the message and hides it for delaySeconds, so SQS redelivers the same message
+     * when a retry is due. Waits for the call; false if SQS didn't take it (the message then comes
+     * back when its current visibility runs out).
+     */
+    boolean retryAfter(String handle, int delaySeconds) {
+        leases.remove(handle);
+        try {
+            ChangeMessageVisibilityBatchResponse resp = changeVisibility(List.of(handle), delaySeconds).join();
+            if (resp.failed().isEmpty()) return true;
+            BatchResultErrorEntry err = resp.failed().get(0);
+            log.warn("Retry visibility change rejected. code={} msg={}", err.code(), err.message());
+        } catch (Exception e) {
+            log.warn("Retry visibility change failed. delaySeconds={}", delaySeconds, e);
+        }
+        return false;
+    }
+
+    private CompletableFuture<ChangeMessageVisibilityBatchResponse> changeVisibility(List<String> handles, int seconds) {
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(handles.size());
+        for (int i = 0; i < handles.size(); i++) {
+            entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                    .id(String.valueOf(i))
+                    .receiptHandle(handles.get(i))
+                    .visibilityTimeout(seconds)
+                    .build());
+        }
+
+        ChangeMessageVisibilityBatchRequest req = ChangeMessageVisibilityBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build();
+
+        if (sqsAsync != null) {
+            return sqsAsync.changeMessageVisibilityBatch(req);
+        }
+        try {
+            return CompletableFuture.completedFuture(sqs.changeMessageVisibilityBatch(req));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void extend(List<String> handles, long now) {
+        changeVisibility(handles, visibilityTimeoutSeconds).whenComplete((resp, err) -> {
+            if (err != null) {
+                // next heartbeat tries again (we still have at least visibilityTimeout/6 left)
+                log.warn("ChangeMessageVisibilityBatch failed. size={}", handles.size(), err);
+                for (int i = 0; i < handles.size(); i++) {
+                    metrics.incVisibilityExtendFailed(queueTag);
+                }
+                return;
+            }
+            onExtended(handles, resp, now);
+        });
+    }
+
+    private void onExtended(List<String> handles, ChangeMessageVisibilityBatchResponse resp, long now) {
+        long visibleUntil = now + TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds);
+        for (ChangeMessageVisibilityBatchResultEntry ok : resp.successful()) {
+            Lease lease = leases.get(handles.get(Integer.parseInt(ok.id())));
+            if (lease != null) {
+                lease.visibleUntilMs = visibleUntil;
+            }
+            metrics.incVisibilityExtended(queueTag);
+        }
+        for (BatchResultErrorEntry err : resp.failed()) {
+            metrics.incVisibilityExtendFailed(queueTag);
+            log.warn("Visibility extension rejected. code={} msg={}", err.code(), err.message());
+        }
+    }
+
+    private void heartbeatQuietly() {
+        try {
+            heartbeat();
+        } catch (Exception e) {
+            log.error("Visibility heartbeat failed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        leases.clear();
+    }
+}
@@ -0,0 +1,40 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * The worker_id this node claims tasks under. By default it's random per process, so two
+ * processes can never share one (claims are fenced on it, and reclaimHeldBy trusts it).
+ *
+ * Only an explicitly configured dtp.worker.id is stable across restarts, which lets the restarted
+ * worker take back whatever it held at once (TaskLeaseReaper.reclaimHeldBy) instead of waiting
+ * for the leases to run out. Whoever sets it must keep it unique per live process.
+ */
+@Component
+public class WorkerIdentity {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerIdentity.class);
+
+    private final String id;
+    private final boolean configured;
+
+    public WorkerIdentity(@Value("${dtp.worker.id:}") String configuredId) {
+        this.configured = configuredId != null && !configuredId.isBlank();
+        this.id = configured ? configuredId.trim() : UUID.randomUUID().toString();
+        log.info("Worker identity. workerId={} configured={}", id, configured);
+    }
+
+    public String id() {
+        return id;
+    }
+
+    /** True if the id came from dtp.worker.id, i.e. an earlier run may have held tasks under it. */
+    public boolean configured() {
+        return configured;
+    }
+}
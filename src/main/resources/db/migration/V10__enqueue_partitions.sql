@@ -0,0 +1,19 @@
+-- Enqueue partitions (dtp.enqueuer.partitions > 1): each task falls in one of 256 fixed buckets
+-- (id % 256) and a partition is a contiguous bucket range, so a partition's claim range-scans only
+-- its own rows instead of filtering every due row with id % N. An expression index rather than a
+-- stored column: adding a generated column would rewrite the whole tasks table under an exclusive lock.
+--
+-- Partition claim: ... WHERE status='ENQUEUED' AND id % 256 >= lo AND id % 256 < hi
+--                        AND scheduled_for <= now() + lookahead
+-- It then sorts that partition's due rows by priority (idx_tasks_enqueued_priority serves the
+-- unpartitioned claim).
+CREATE INDEX IF NOT EXISTS idx_tasks_enqueued_bucket
+    ON tasks ((id % 256), scheduled_for, id)
+    WHERE status = 'ENQUEUED';
+
+-- Live enqueuer nodes. Each node heartbeats here and takes every k-th partition (k = number of live
+-- nodes), so nodes split the partitions instead of all of them trying every partition each tick.
+CREATE TABLE IF NOT EXISTS enqueuer_nodes (
+    node_id      text PRIMARY KEY,
+    heartbeat_at timestamp with time zone NOT NULL DEFAULT now()
+);
@@ -0,0 +1,5 @@
+-- OutboxRelay claims a batch (claimed_until) and commits before sending it to SQS, instead of holding
+-- FOR UPDATE locks across the send. Sent rows are deleted afterwards; rows of a relay that died
+-- mid-send become claimable again once their claim runs out.
+ALTER TABLE task_outbox
+    ADD COLUMN IF NOT EXISTS claimed_until timestamptz;
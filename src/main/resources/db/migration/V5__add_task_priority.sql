@@ -0,0 +1,13 @@
+-- Higher runs first; 0 is the default (bulk/backfill work)
+ALTER TABLE tasks
+    ADD COLUMN IF NOT EXISTS priority smallint NOT NULL DEFAULT 0;
+
+-- Enqueuer (sqs mode): ... WHERE status='ENQUEUED' ORDER BY priority DESC, scheduled_for NULLS FIRST, id
+CREATE INDEX IF NOT EXISTS idx_tasks_enqueued_priority
+    ON tasks (priority DESC, scheduled_for NULLS FIRST, id)
+    WHERE status = 'ENQUEUED';
+
+-- DB-mode poller: ... WHERE status IN ('PENDING','FAILED') ORDER BY priority DESC, created_at
+CREATE INDEX IF NOT EXISTS idx_tasks_runnable_priority
+    ON tasks (priority DESC, created_at, id)
+    WHERE status IN ('PENDING', 'FAILED');
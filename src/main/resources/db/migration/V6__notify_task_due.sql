@@ -0,0 +1,28 @@
+-- Wakes DueTaskEnqueuer (TaskDueListener LISTENs on dtp_task_due) when a task becomes ENQUEUED
+-- and claimable: on insert, and when it goes back to ENQUEUED on reschedule.
+-- Rows that hold an enqueue lock (next_run_at in the future) don't notify: someone is already
+-- sending them (API direct send, in-place SQS retry), and the enqueuer picks them up if that fails.
+-- Payload = scheduled_for in epoch ms, so the enqueuer can wake when the task is due.
+-- Identical payloads in one transaction are delivered once (Postgres folds duplicate NOTIFYs).
+CREATE OR REPLACE FUNCTION notify_task_due() RETURNS trigger AS $$
+BEGIN
+    PERFORM pg_notify(
+        'dtp_task_due',
+        COALESCE((extract(epoch FROM NEW.scheduled_for) * 1000)::bigint, 0)::text
+    );
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER tasks_notify_due_insert
+    AFTER INSERT ON tasks
+    FOR EACH ROW
+    WHEN (NEW.status = 'ENQUEUED' AND (NEW.next_run_at IS NULL OR NEW.next_run_at <= now()))
+    EXECUTE FUNCTION notify_task_due();
+
+CREATE TRIGGER tasks_notify_due_update
+    AFTER UPDATE OF status ON tasks
+    FOR EACH ROW
+    WHEN (NEW.status = 'ENQUEUED' AND OLD.status IS DISTINCT FROM NEW.status
+          AND (NEW.next_run_at IS NULL OR NEW.next_run_at <= now()))
+    EXECUTE FUNCTION notify_task_due();
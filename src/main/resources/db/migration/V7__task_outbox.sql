@@ -0,0 +1,10 @@
+-- Transactional outbox: TaskService.create appends a row in the same transaction as the task,
+-- OutboxRelay publishes rows to SQS and deletes them. Insert/delete only, never updated.
+CREATE TABLE task_outbox (
+    id            bigserial PRIMARY KEY,
+    task_id       bigint      NOT NULL,
+    type          varchar(255) NOT NULL,
+    priority      smallint    NOT NULL DEFAULT 0,
+    scheduled_for timestamptz,
+    created_at    timestamptz NOT NULL DEFAULT now()
+);
@@ -0,0 +1,15 @@
+-- Tasks can be created to run later (runAt / delaySeconds), so ENQUEUED rows are mostly not due.
+-- Due-task scans (... WHERE status='ENQUEUED' AND scheduled_for <= now() + lookahead) range-scan
+-- this instead of walking every enqueued row.
+CREATE INDEX IF NOT EXISTS idx_tasks_enqueued_scheduled_for
+    ON tasks (scheduled_for, id)
+    WHERE status = 'ENQUEUED';
+
+-- Same for the outbox: far-future rows wait here until they enter the lookahead window.
+UPDATE task_outbox SET scheduled_for = created_at WHERE scheduled_for IS NULL;
+ALTER TABLE task_outbox
+    ALTER COLUMN scheduled_for SET DEFAULT now(),
+    ALTER COLUMN scheduled_for SET NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_task_outbox_scheduled_for
+    ON task_outbox (scheduled_for, id);
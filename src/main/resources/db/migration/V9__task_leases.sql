@@ -0,0 +1,14 @@
+-- Processing lease: a claimed task belongs to its worker only until lease_expires_at. Live workers
+-- keep pushing it forward; once it has passed, TaskLeaseReaper hands the task back to the queue.
+ALTER TABLE tasks
+    ADD COLUMN IF NOT EXISTS lease_expires_at timestamp with time zone;
+
+-- Rows claimed before leases existed: give their workers time to finish, then they're reclaimable
+UPDATE tasks
+   SET lease_expires_at = now() + interval '10 minutes'
+ WHERE status = 'PROCESSING';
+
+-- Reaper: ... WHERE status='PROCESSING' AND lease_expires_at < now() ORDER BY lease_expires_at
+CREATE INDEX IF NOT EXISTS idx_tasks_processing_lease
+    ON tasks (lease_expires_at)
+    WHERE status = 'PROCESSING';
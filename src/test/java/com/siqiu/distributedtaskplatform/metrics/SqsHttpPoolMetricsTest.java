@@ -0,0 +1,67 @@
+package com.siqiu.distributedtaskplatform.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqsHttpPoolMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SqsHttpPoolMetrics pool = new SqsHttpPoolMetrics(registry);
+
+    @Test
+    void gaugesAreZero_untilACallReportsThePool() {
+        assertThat(gauge("dtp_sqs_http_pool_max")).isZero();
+        assertThat(gauge("dtp_sqs_http_pool_leased")).isZero();
+        assertThat(gauge("dtp_sqs_http_pool_available")).isZero();
+        assertThat(gauge("dtp_sqs_http_pool_pending")).isZero();
+    }
+
+    @Test
+    void publish_readsThePoolFromTheHttpChildCollection() {
+        pool.publish(apiCall(100, 7, 3, 2));
+
+        assertThat(gauge("dtp_sqs_http_pool_max")).isEqualTo(100);
+        assertThat(gauge("dtp_sqs_http_pool_leased")).isEqualTo(7);
+        assertThat(gauge("dtp_sqs_http_pool_available")).isEqualTo(3);
+        assertThat(gauge("dtp_sqs_http_pool_pending")).isEqualTo(2);
+    }
+
+    @Test
+    void publish_keepsTheLatestCallsView() {
+        pool.publish(apiCall(100, 7, 3, 2));
+        pool.publish(apiCall(100, 1, 9, 0));
+
+        assertThat(gauge("dtp_sqs_http_pool_leased")).isEqualTo(1);
+        assertThat(gauge("dtp_sqs_http_pool_available")).isEqualTo(9);
+        assertThat(gauge("dtp_sqs_http_pool_pending")).isZero();
+    }
+
+    @Test
+    void publish_callWithoutPoolMetrics_leavesTheGaugesAlone() {
+        pool.publish(apiCall(100, 7, 3, 2));
+        pool.publish(MetricCollector.create("ApiCall").collect());
+
+        assertThat(gauge("dtp_sqs_http_pool_leased")).isEqualTo(7);
+    }
+
+    // Same shape as the SDK's: pool metrics sit in the per-attempt HTTP client child collection
+    private static MetricCollection apiCall(int max, int leased, int available, int pending) {
+        MetricCollector call = MetricCollector.create("ApiCall");
+        MetricCollector attempt = call.createChild("ApiCallAttempt");
+        MetricCollector http = attempt.createChild("HttpClient");
+        http.reportMetric(HttpMetric.MAX_CONCURRENCY, max);
+        http.reportMetric(HttpMetric.LEASED_CONCURRENCY, leased);
+        http.reportMetric(HttpMetric.AVAILABLE_CONCURRENCY, available);
+        http.reportMetric(HttpMetric.PENDING_CONCURRENCY_ACQUIRES, pending);
+        return call.collect();
+    }
+
+    private double gauge(String name) {
+        return registry.get(name).gauge().value();
+    }
+}
@@ -1,6 +1,8 @@
 package com.siqiu.distributedtaskplatform.queue;
 
+import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
 import com.siqiu.distributedtaskplatform.repo.TaskEnqueueRepository;
+import com.siqiu.distributedtaskplatform.worker.WorkerIdentity;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -9,6 +11,11 @@ import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.*;
@@ -24,6 +31,8 @@ class DueTaskEnqueuerTest {
 
     @Autowired JdbcTemplate jdbc;
     @Autowired DueTaskEnqueuer enqueuer;
+    @Autowired TaskEnqueueRepository enqueueRepo;
+    @Autowired TaskMetrics metrics;
 
     @MockBean TaskQueueClient queueClient;
 
@@ -32,6 +41,11 @@ class DueTaskEnqueuerTest {
         long id1 = insertTask("ENQUEUED", Instant.now().minusSeconds(1));
         long id2 = insertTask("ENQUEUED", Instant.now().minusSeconds(1));
 
+        // the batch/routed/async variants fall through to the (stubbed) blocking call
+        when(queueClient.enqueueBatch(any())).thenCallRealMethod();
+        when(queueClient.enqueueAsync(any())).thenCallRealMethod();
+        doCallRealMethod().when(queueClient).enqueue(any());
+
         // make enqueue fail for id2
         doNothing().when(queueClient).enqueueTask(eq(String.valueOf(id1)), anyLong());
         doThrow(new RuntimeException("boom")).when(queueClient).enqueueTask(eq(String.valueOf(id2)), anyLong());
@@ -50,6 +64,83 @@ class DueTaskEnqueuerTest {
         assertThat(lockNull).isEqualTo(1);
     }
 
+    @Test
+    void twoNodes_splitThePartitions_andSendEachTaskOnce() {
+        jdbc.update("DELETE FROM enqueuer_nodes");
+        Set<Long> sentByA = ConcurrentHashMap.newKeySet();
+        Set<Long> sentByB = ConcurrentHashMap.newKeySet();
+        DueTaskEnqueuer a = partitionedNode("node-a", sentByA);
+        DueTaskEnqueuer b = partitionedNode("node-b", sentByB);
+        try {
+            // both join (and drain whatever older tests left due)
+            a.tick();
+            b.tick();
+
+            List<Long> ids = insertDueTasks(2 * TaskEnqueueRepository.ENQUEUE_BUCKETS);
+            a.tick();
+            b.tick();
+
+            // node-a is first of two members, so it owns partition 0 and node-b partition 1
+            List<Long> partition0 = ids.stream().filter(id -> TaskEnqueueRepository.partitionOf(id, 2) == 0).toList();
+            List<Long> partition1 = ids.stream().filter(id -> TaskEnqueueRepository.partitionOf(id, 2) == 1).toList();
+            assertThat(partition0).isNotEmpty();
+            assertThat(partition1).isNotEmpty();
+
+            assertThat(sentByA).containsAll(partition0).doesNotContainAnyElementsOf(partition1);
+            assertThat(sentByB).containsAll(partition1).doesNotContainAnyElementsOf(partition0);
+        } finally {
+            a.destroy();
+            b.destroy();
+        }
+    }
+
+    @Test
+    void nodeThatLeaves_handsItsPartitionsToTheRemainingNode() {
+        jdbc.update("DELETE FROM enqueuer_nodes");
+        Set<Long> sentByA = ConcurrentHashMap.newKeySet();
+        Set<Long> sentByB = ConcurrentHashMap.newKeySet();
+        DueTaskEnqueuer a = partitionedNode("node-a", sentByA);
+        DueTaskEnqueuer b = partitionedNode("node-b", sentByB);
+        try {
+            a.tick();
+            b.tick();
+            b.destroy(); // leaves the membership on shutdown
+
+            List<Long> ids = insertDueTasks(2 * TaskEnqueueRepository.ENQUEUE_BUCKETS);
+            a.tick();
+
+            assertThat(sentByA).containsAll(ids);
+            assertThat(sentByB).doesNotContainAnyElementsOf(ids);
+        } finally {
+            a.destroy();
+        }
+    }
+
+    /** An enqueuer node with 2 partitions and no background loop, recording the task ids it sends. */
+    private DueTaskEnqueuer partitionedNode(String nodeId, Set<Long> sent) {
+        TaskQueueClient client = mock(TaskQueueClient.class);
+        when(client.enqueueBatch(any())).thenAnswer(inv -> {
+            List<EnqueueRequest> requests = inv.getArgument(0);
+            requests.forEach(r -> sent.add(r.taskId()));
+            return CompletableFuture.completedFuture(Set.<Long>of());
+        });
+        return new DueTaskEnqueuer(enqueueRepo, client, metrics, new WorkerIdentity(nodeId),
+                "sqs", 1000, 30, 0,
+                2, 2,           // partitions, threads
+                15, 0,          // membership ttl, re-read membership every tick
+                10, 5000,
+                false, false, 5,
+                3, 1000, 30000);
+    }
+
+    private List<Long> insertDueTasks(int n) {
+        List<Long> ids = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ids.add(insertTask("ENQUEUED", Instant.now().minusSeconds(1)));
+        }
+        return ids;
+    }
+
     private long insertTask(String status, Instant scheduledFor) {
         return jdbc.queryForObject(
                 """
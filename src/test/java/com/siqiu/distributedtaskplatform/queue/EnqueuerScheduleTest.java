@@ -0,0 +1,69 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EnqueuerScheduleTest {
+
+    @Test
+    void fullClaims_pollImmediately_emptyClaims_backOffExponentially_toMax() {
+        EnqueuerSchedule s = new EnqueuerSchedule(10, 50);
+
+        assertThat(s.afterClaim(50, true)).isZero();
+        assertThat(s.afterClaim(0, false)).isEqualTo(10);
+        assertThat(s.afterClaim(0, false)).isEqualTo(20);
+        assertThat(s.afterClaim(0, false)).isEqualTo(40);
+        assertThat(s.afterClaim(0, false)).isEqualTo(50); // capped
+        assertThat(s.afterClaim(0, false)).isEqualTo(50);
+
+        assertThat(s.afterClaim(3, false)).isEqualTo(10); // partial: back to the short end
+        assertThat(s.idleDelayMs()).isEqualTo(10);
+    }
+
+    @Test
+    void await_returnsEarly_whenWokenForADueTask_andResetsTheBackoff() throws Exception {
+        EnqueuerSchedule s = new EnqueuerSchedule(10, 60_000);
+        s.afterClaim(0, false);
+        s.afterClaim(0, false);
+
+        Thread waker = new Thread(() -> {
+            sleep(50);
+            s.wakeAt(System.currentTimeMillis());
+        });
+        waker.start();
+
+        long start = System.currentTimeMillis();
+        boolean notified = s.await(60_000);
+        waker.join();
+
+        assertThat(notified).isTrue();
+        assertThat(System.currentTimeMillis() - start).isLessThan(5_000);
+        assertThat(s.idleDelayMs()).isEqualTo(10);
+    }
+
+    @Test
+    void await_wakesAtTheNotifiedDueTime_notBefore() throws Exception {
+        EnqueuerSchedule s = new EnqueuerSchedule(10, 60_000);
+        long dueAt = System.currentTimeMillis() + 200;
+        s.wakeAt(dueAt);
+
+        assertThat(s.await(60_000)).isTrue();
+        assertThat(System.currentTimeMillis()).isGreaterThanOrEqualTo(dueAt);
+    }
+
+    @Test
+    void await_withoutNotification_sleepsTheDelay() throws Exception {
+        EnqueuerSchedule s = new EnqueuerSchedule(10, 60_000);
+
+        assertThat(s.await(20)).isFalse();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import com.siqiu.distributedtaskplatform.task.Task;
+import com.siqiu.distributedtaskplatform.task.TaskService;
+import com.siqiu.distributedtaskplatform.task.dto.CreateTaskRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(properties = {
+        "dtp.queue.mode=sqs",
+        "dtp.enqueuer.autostart=true", // relay + enqueuer loops and the timing wheel
+        "spring.task.scheduling.enabled=false"
+})
+@ActiveProfiles("test")
+class OutboxRelayTest {
+
+    @Autowired TaskService taskService;
+    @Autowired JdbcTemplate jdbc;
+
+    @MockBean TaskQueueClient queueClient;
+
+    @Test
+    void delayedTask_goesThroughTheTimer_andIsSentAtItsDueTime() throws Exception {
+        Map<Long, Long> sentAtMs = new ConcurrentHashMap<>();
+        Map<Long, Long> requestedAtMs = new ConcurrentHashMap<>();
+        when(queueClient.enqueueBatch(any())).thenAnswer(inv -> {
+            List<EnqueueRequest> requests = inv.getArgument(0);
+            long now = System.currentTimeMillis();
+            requests.forEach(r -> {
+                sentAtMs.putIfAbsent(r.taskId(), now);
+                requestedAtMs.putIfAbsent(r.taskId(), r.scheduledForEpochMs());
+            });
+            return CompletableFuture.completedFuture(Set.<Long>of());
+        });
+
+        CreateTaskRequest request = new CreateTaskRequest();
+        request.setType("email");
+        request.setPayload("later");
+        request.setDelaySeconds(2L);
+        Task task = taskService.create(request);
+        long id = task.getId();
+        long dueMs = task.getScheduledFor().toEpochMilli();
+
+        // the relay takes the row right after commit, but hands it to the timer instead of sending it
+        awaitTrue(() -> outboxRows(id) == 0);
+        assertThat(sentAtMs).doesNotContainKey(id);
+
+        // ...which sends it once it's due, not before
+        awaitTrue(() -> sentAtMs.containsKey(id));
+        assertThat(sentAtMs.get(id)).isGreaterThanOrEqualTo(dueMs);
+        assertThat(requestedAtMs.get(id)).isEqualTo(dueMs);
+    }
+
+    private int outboxRows(long taskId) {
+        Integer n = jdbc.queryForObject("SELECT count(*) FROM task_outbox WHERE task_id = ?", Integer.class, taskId);
+        return n == null ? 0 : n;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,79 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SendCircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000);
+
+    @Test
+    void opensAfterConsecutiveFullyFailedBatches_andBlocksClaimsUntilTheCooldownEnds() {
+        SendCircuitBreaker b = new SendCircuitBreaker(3, 1_000, 8_000, now::get);
+
+        b.record(0, 10);
+        b.record(0, 10);
+        assertThat(b.allowClaim()).isTrue();
+        b.record(0, 10);
+
+        assertThat(b.state()).isEqualTo(SendCircuitBreaker.State.OPEN);
+        assertThat(b.allowClaim()).isFalse();
+        assertThat(b.remainingOpenMs()).isEqualTo(1_000);
+
+        now.addAndGet(1_000);
+        assertThat(b.allowClaim()).isTrue(); // the probe
+        assertThat(b.allowClaim()).isFalse(); // only one at a time
+    }
+
+    @Test
+    void partialFailures_doNotCountTowardsOpening() {
+        SendCircuitBreaker b = new SendCircuitBreaker(2, 1_000, 8_000, now::get);
+
+        b.record(0, 10);
+        b.record(1, 9);
+        b.record(0, 10);
+
+        assertThat(b.state()).isEqualTo(SendCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void failedProbe_reopensForTwiceAsLong_successfulProbeCloses() {
+        SendCircuitBreaker b = new SendCircuitBreaker(1, 1_000, 3_000, now::get);
+        b.record(0, 5);
+
+        now.addAndGet(1_000);
+        assertThat(b.allowClaim()).isTrue();
+        b.record(0, 5);
+        assertThat(b.remainingOpenMs()).isEqualTo(2_000);
+
+        now.addAndGet(2_000);
+        assertThat(b.allowClaim()).isTrue();
+        b.record(0, 5);
+        assertThat(b.remainingOpenMs()).isEqualTo(3_000); // capped
+
+        now.addAndGet(3_000);
+        assertThat(b.allowClaim()).isTrue();
+        b.record(5, 0);
+        assertThat(b.state()).isEqualTo(SendCircuitBreaker.State.CLOSED);
+        assertThat(b.allowClaim()).isTrue();
+
+        b.record(0, 5); // back to the base cooldown
+        assertThat(b.remainingOpenMs()).isEqualTo(1_000);
+    }
+
+    @Test
+    void probeThatSentNothing_letsTheNextTickProbe() {
+        SendCircuitBreaker b = new SendCircuitBreaker(1, 1_000, 8_000, now::get);
+        b.record(0, 5);
+        now.addAndGet(1_000);
+
+        assertThat(b.allowClaim()).isTrue();
+        b.endTick(); // nothing was due
+
+        assertThat(b.state()).isEqualTo(SendCircuitBreaker.State.HALF_OPEN);
+        assertThat(b.allowClaim()).isTrue();
+    }
+}
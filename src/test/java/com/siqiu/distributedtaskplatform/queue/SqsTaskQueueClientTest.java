@@ -0,0 +1,168 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SqsTaskQueueClientTest {
+
+    @Test
+    void enqueue_routesByType_andFallsBackToDefaultQueue() {
+        SqsClient sqs = mock(SqsClient.class);
+        when(sqs.getQueueUrl(any(GetQueueUrlRequest.class))).thenAnswer(inv -> {
+            GetQueueUrlRequest req = inv.getArgument(0);
+            return GetQueueUrlResponse.builder().queueUrl("http://sqs/" + req.queueName()).build();
+        });
+        SqsQueueRouting routing = new SqsQueueRouting(Map.of("report", "dtp-report-queue"), Map.of(), null, 1, false);
+
+        SqsTaskQueueClient client = new SqsTaskQueueClient(sqs, null, "dtp-task-queue", routing);
+        client.enqueue(new EnqueueRequest(1L, "report", 0, 0L));
+        client.enqueue(new EnqueueRequest(2L, "email", 0, 0L));
+        client.enqueueAsync(new EnqueueRequest(3L, "report", 0, 0L)).join();
+
+        var sent = ArgumentCaptor.forClass(SendMessageRequest.class);
+        verify(sqs, times(3)).sendMessage(sent.capture());
+        assertThat(sent.getAllValues())
+                .extracting(SendMessageRequest::queueUrl, SendMessageRequest::messageBody)
+                .containsExactly(
+                        tuple("http://sqs/dtp-report-queue", "1"),
+                        tuple("http://sqs/dtp-task-queue", "2"),
+                        tuple("http://sqs/dtp-report-queue", "3"));
+    }
+
+    @Test
+    void enqueue_sendsUrgentTasksToHighPriorityQueue_whateverTheirType() {
+        SqsClient sqs = mock(SqsClient.class);
+        when(sqs.getQueueUrl(any(GetQueueUrlRequest.class))).thenAnswer(inv -> {
+            GetQueueUrlRequest req = inv.getArgument(0);
+            return GetQueueUrlResponse.builder().queueUrl("http://sqs/" + req.queueName()).build();
+        });
+        SqsQueueRouting routing = new SqsQueueRouting(
+                Map.of("report", "dtp-report-queue"), Map.of(), "dtp-task-queue-high", 5, true);
+
+        SqsTaskQueueClient client = new SqsTaskQueueClient(sqs, null, "dtp-task-queue", routing);
+        client.enqueue(new EnqueueRequest(1L, "report", 7, 0L));
+        client.enqueue(new EnqueueRequest(2L, "report", 4, 0L));
+
+        var sent = ArgumentCaptor.forClass(SendMessageRequest.class);
+        verify(sqs, times(2)).sendMessage(sent.capture());
+        assertThat(sent.getAllValues()).extracting(SendMessageRequest::queueUrl)
+                .containsExactly("http://sqs/dtp-task-queue-high", "http://sqs/dtp-report-queue");
+    }
+
+    @Test
+    void delaySecondsUntil_roundsUp_andCapsAtFifteenMinutes() {
+        long now = 1_000_000L;
+
+        assertThat(SqsTaskQueueClient.delaySecondsUntil(now - 5_000, now)).isZero();
+        assertThat(SqsTaskQueueClient.delaySecondsUntil(now, now)).isZero();
+        assertThat(SqsTaskQueueClient.delaySecondsUntil(now + 1, now)).isEqualTo(1);
+        assertThat(SqsTaskQueueClient.delaySecondsUntil(now + 42_000, now)).isEqualTo(42);
+        assertThat(SqsTaskQueueClient.delaySecondsUntil(now + 3_600_000, now)).isEqualTo(900);
+    }
+
+    @Test
+    void enqueue_futureTask_isSentWithDelay() {
+        SqsClient sqs = mock(SqsClient.class);
+        when(sqs.getQueueUrl(any(GetQueueUrlRequest.class)))
+                .thenReturn(GetQueueUrlResponse.builder().queueUrl("http://sqs/dtp-task-queue").build());
+
+        SqsTaskQueueClient client = new SqsTaskQueueClient(sqs, "dtp-task-queue");
+        client.enqueueTask("7", System.currentTimeMillis() + 20_000);
+
+        var sent = ArgumentCaptor.forClass(SendMessageRequest.class);
+        verify(sqs).sendMessage(sent.capture());
+        assertThat(sent.getValue().delaySeconds()).isBetween(19, 20);
+    }
+
+    @Test
+    void enqueueBatch_sendsTenPerCall_andReturnsOnlyFailedEntries() {
+        SqsClient sqs = mock(SqsClient.class);
+        when(sqs.getQueueUrl(any(GetQueueUrlRequest.class)))
+                .thenReturn(GetQueueUrlResponse.builder().queueUrl("http://sqs/dtp-task-queue").build());
+        when(sqs.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(inv -> {
+            SendMessageBatchRequest req = inv.getArgument(0);
+            var failed = req.entries().stream()
+                    .filter(e -> e.id().equals("13"))
+                    .map(e -> BatchResultErrorEntry.builder().id(e.id()).code("InternalError").senderFault(false).build())
+                    .toList();
+            return SendMessageBatchResponse.builder().failed(failed).build();
+        });
+
+        SqsTaskQueueClient client = new SqsTaskQueueClient(sqs, "dtp-task-queue");
+        List<EnqueueRequest> requests = LongStream.rangeClosed(1, 25)
+                .mapToObj(id -> new EnqueueRequest(id, "email", 0, 0L))
+                .toList();
+
+        var failed = client.enqueueBatch(requests).join();
+
+        assertThat(failed).containsExactly(13L);
+        var sent = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqs, times(3)).sendMessageBatch(sent.capture());
+        assertThat(sent.getAllValues()).extracting(r -> r.entries().size()).containsExactlyInAnyOrder(10, 10, 5);
+        verify(sqs, never()).sendMessage(any(SendMessageRequest.class));
+    }
+
+    @Test
+    void enqueueBatch_failedCall_failsOnlyThatCallsEntries() {
+        SqsClient sqs = mock(SqsClient.class);
+        when(sqs.getQueueUrl(any(GetQueueUrlRequest.class))).thenAnswer(inv -> {
+            GetQueueUrlRequest req = inv.getArgument(0);
+            return GetQueueUrlResponse.builder().queueUrl("http://sqs/" + req.queueName()).build();
+        });
+        when(sqs.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(inv -> {
+            SendMessageBatchRequest req = inv.getArgument(0);
+            if (req.queueUrl().endsWith("dtp-report-queue")) throw new RuntimeException("boom");
+            return SendMessageBatchResponse.builder().build();
+        });
+        SqsQueueRouting routing = new SqsQueueRouting(Map.of("report", "dtp-report-queue"), Map.of(), null, 1, false);
+
+        SqsTaskQueueClient client = new SqsTaskQueueClient(sqs, null, "dtp-task-queue", routing);
+        var failed = client.enqueueBatch(List.of(
+                new EnqueueRequest(1L, "report", 0, 0L),
+                new EnqueueRequest(2L, "email", 0, 0L),
+                new EnqueueRequest(3L, "report", 0, 0L))).join();
+
+        assertThat(failed).containsExactlyInAnyOrder(1L, 3L);
+    }
+
+    @Test
+    void enqueueBatch_syncClient_sendsTheCallsInParallel() {
+        SqsClient sqs = mock(SqsClient.class);
+        when(sqs.getQueueUrl(any(GetQueueUrlRequest.class)))
+                .thenReturn(GetQueueUrlResponse.builder().queueUrl("http://sqs/dtp-task-queue").build());
+        // every call waits until all three are in flight: one after another, they'd time out
+        CountDownLatch inFlight = new CountDownLatch(3);
+        when(sqs.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(inv -> {
+            inFlight.countDown();
+            if (!inFlight.await(5, TimeUnit.SECONDS)) throw new IllegalStateException("calls ran one at a time");
+            return SendMessageBatchResponse.builder().build();
+        });
+
+        try (SqsTaskQueueClient client = new SqsTaskQueueClient(sqs, "dtp-task-queue")) {
+            var failed = client.enqueueBatch(LongStream.rangeClosed(1, 30)
+                    .mapToObj(id -> new EnqueueRequest(id, "email", 0, 0L))
+                    .toList()).join();
+
+            assertThat(failed).isEmpty();
+            verify(sqs, times(3)).sendMessageBatch(any(SendMessageBatchRequest.class));
+        }
+    }
+}
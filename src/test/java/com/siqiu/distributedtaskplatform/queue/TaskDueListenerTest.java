@@ -0,0 +1,73 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.task.scheduling.enabled=false"
+})
+class TaskDueListenerTest {
+
+    @Autowired JdbcTemplate jdbc;
+    @Autowired DataSource dataSource;
+
+    @Test
+    void enqueuedInsert_notifiesWithScheduledFor_butEnqueueLockedInsertDoesNot() throws Exception {
+        Instant scheduledFor = Instant.now().plusSeconds(20).truncatedTo(ChronoUnit.MILLIS);
+
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(true);
+            try (Statement st = conn.createStatement()) {
+                st.execute("LISTEN " + TaskDueListener.CHANNEL);
+            }
+            PGConnection pg = conn.unwrap(PGConnection.class);
+
+            insertTask("ENQUEUED", scheduledFor, null);
+            insertTask("ENQUEUED", scheduledFor.plusSeconds(1), Instant.now().plusSeconds(30)); // being sent
+            insertTask("PENDING", scheduledFor.plusSeconds(2), null);
+
+            List<String> payloads = new ArrayList<>();
+            PGNotification[] got = pg.getNotifications(2000);
+            if (got != null) Arrays.stream(got).forEach(n -> payloads.add(n.getParameter()));
+
+            assertThat(payloads).containsExactly(String.valueOf(scheduledFor.toEpochMilli()));
+        }
+    }
+
+    @Test
+    void parseDueAt_treatsMissingOrBadPayloadAsDueNow() {
+        assertThat(TaskDueListener.parseDueAt("1700000000000")).isEqualTo(1_700_000_000_000L);
+        assertThat(TaskDueListener.parseDueAt("")).isZero();
+        assertThat(TaskDueListener.parseDueAt(null)).isZero();
+        assertThat(TaskDueListener.parseDueAt("nope")).isZero();
+    }
+
+    private void insertTask(String status, Instant scheduledFor, Instant nextRunAt) {
+        jdbc.update(
+                """
+                INSERT INTO tasks(type, payload, status, created_at, updated_at, attempt_count, max_attempts,
+                                  scheduled_for, next_run_at)
+                VALUES ('t', 'p', ?, now(), now(), 0, 3, ?, ?)
+                """,
+                status,
+                Timestamp.from(scheduledFor),
+                nextRunAt == null ? null : Timestamp.from(nextRunAt)
+        );
+    }
+}
@@ -0,0 +1,87 @@
+package com.siqiu.distributedtaskplatform.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimingWheelTest {
+
+    @Test
+    void firesOnceItsTickHasPassed_neverEarly() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 1_000);
+        wheel.add("a", 1_025);
+        List<String> due = new ArrayList<>();
+
+        wheel.advanceTo(1_029, due);
+        assertThat(due).isEmpty();
+
+        wheel.advanceTo(1_030, due);
+        assertThat(due).containsExactly("a");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void alreadyDue_isRejected_soTheCallerSendsItNow() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 1_000);
+
+        assertThat(wheel.add("late", 990)).isFalse();
+        assertThat(wheel.add("now", 1_000)).isTrue();
+        assertThat(wheel.size()).isEqualTo(1);
+    }
+
+    @Test
+    void itemsBeyondTheFirstLevel_cascadeDown_andFireAtTheirOwnTime() {
+        // level 0 spans 80ms, level 1 640ms, level 2 5120ms
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+        wheel.add("near", 55);
+        wheel.add("mid", 333);
+        wheel.add("far", 4_321);
+        List<String> due = new ArrayList<>();
+
+        wheel.advanceTo(330, due);
+        assertThat(due).containsExactly("near");
+
+        wheel.advanceTo(340, due);
+        assertThat(due).containsExactly("near", "mid");
+
+        wheel.advanceTo(4_320, due);
+        assertThat(due).containsExactly("near", "mid");
+
+        wheel.advanceTo(4_330, due);
+        assertThat(due).containsExactly("near", "mid", "far");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void manyItemsAddedAsTheClockMoves_eachFiresWithinOneTickAfterItsTime() {
+        TimingWheel<Long> wheel = new TimingWheel<>(5, 4, 0); // small wheel: lots of cascading
+        List<Long> due = new ArrayList<>();
+        int added = 0;
+        for (long now = 0; now < 20_000; now++) {
+            due.clear();
+            wheel.advanceTo(now, due);
+            for (long expiration : due) {
+                assertThat(now).isBetween(expiration + 1, expiration + 5);
+            }
+            if (now % 7 == 0 && now < 10_000) {
+                long expiration = now + (now * 31) % 3_000;
+                if (wheel.add(expiration, expiration)) added++;
+            }
+        }
+        assertThat(added).isGreaterThan(1_000);
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void drainAll_returnsEverythingStillWaiting() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+        wheel.add("a", 50);
+        wheel.add("b", 5_000);
+
+        assertThat(wheel.drainAll()).containsExactlyInAnyOrder("a", "b");
+        assertThat(wheel.size()).isZero();
+    }
+}
@@ -1,13 +1,21 @@
 package com.siqiu.distributedtaskplatform.repo;
 
+import com.siqiu.distributedtaskplatform.task.TaskExecutionContext;
+import com.siqiu.distributedtaskplatform.task.TaskStatus;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -16,6 +24,7 @@ class TaskClaimRepositoryTest {
 
     @Autowired JdbcTemplate jdbc;
     @Autowired TaskClaimRepository claimRepo;
+    @Autowired PlatformTransactionManager txManager;
 
     private long taskId;
     private final String workerA = "worker-A";
@@ -96,6 +105,22 @@ class TaskClaimRepositoryTest {
         assertThat(scheduledFor).isAfter(beforeFail.minusSeconds(1));
     }
 
+    @Test
+    void markFailed_withEnqueueHold_locksEnqueuerPastTheRetryTime() {
+        assertThat(claimRepo.claimEnqueuedTask(taskId, workerA)).isTrue();
+
+        var outcome = claimRepo.markFailedAndRescheduleOutcome(taskId, workerA, "boom", 5, 60);
+        assertThat(outcome.updated()).isTrue();
+        assertThat(outcome.becameDead()).isFalse();
+
+        var row = jdbc.queryForMap("SELECT status, scheduled_for, next_run_at FROM tasks WHERE id = ?", taskId);
+        assertThat(row.get("status")).isEqualTo("ENQUEUED");
+        Instant scheduledFor = ((Timestamp) row.get("scheduled_for")).toInstant();
+        Instant lockedUntil = ((Timestamp) row.get("next_run_at")).toInstant();
+        // the redelivered message gets the claim first; the enqueuer only re-sends after the grace
+        assertThat(lockedUntil).isAfterOrEqualTo(scheduledFor.plusSeconds(59));
+    }
+
     @Test
     void markFailed_transitions_to_DEAD_when_attempts_exhausted() {
         // Put it at 2 attempts already (max=3), then claim increments to 3.
@@ -120,4 +145,193 @@ class TaskClaimRepositoryTest {
         assertThat(row.get("worker_id")).isNull();
         assertThat(row.get("processing_started_at")).isNull();
     }
+
+    @Test
+    void batchClaim_returnsOnlyTheIdsItClaimed() {
+        long second = jdbc.queryForObject("""
+            INSERT INTO tasks(type, payload, status, created_at, updated_at, attempt_count, max_attempts, scheduled_for)
+            VALUES ('email', 'hello', 'ENQUEUED', now(), now(), 0, 3, now() - interval '1 second')
+            RETURNING id
+        """, Long.class);
+        assertThat(claimRepo.claimEnqueuedTask(second, workerB)).isTrue(); // already taken
+
+        var claimed = claimRepo.claimEnqueuedTasks(List.of(taskId, second, -1L), workerA);
+
+        assertThat(claimed).extracting(TaskExecutionContext::id).containsExactly(taskId);
+        TaskExecutionContext ctx = claimed.get(0);
+        assertThat(ctx.type()).isEqualTo("email");
+        assertThat(ctx.payload()).isEqualTo("hello");
+        assertThat(ctx.scheduledFor()).isNotNull();
+        assertThat(ctx.attemptCount()).isEqualTo(1); // includes this attempt
+        assertThat(ctx.maxAttempts()).isEqualTo(3);
+        assertThat(jdbc.queryForObject("SELECT worker_id FROM tasks WHERE id = ?", String.class, taskId))
+                .isEqualTo(workerA);
+        assertThat(jdbc.queryForObject("SELECT worker_id FROM tasks WHERE id = ?", String.class, second))
+                .isEqualTo(workerB);
+    }
+
+    @Test
+    void batchCompletions_onlyTouchRowsThisWorkerStillHolds() {
+        long other = jdbc.queryForObject("""
+            INSERT INTO tasks(type, payload, status, created_at, updated_at, attempt_count, max_attempts, scheduled_for)
+            VALUES ('email', 'hello', 'ENQUEUED', now(), now(), 2, 3, now() - interval '1 second')
+            RETURNING id
+        """, Long.class);
+        assertThat(claimRepo.claimEnqueuedTasks(List.of(taskId, other), workerA)).hasSize(2);
+
+        assertThat(claimRepo.markSucceededBatch(List.of(taskId), workerB)).isEmpty(); // wrong worker
+        assertThat(claimRepo.markSucceededBatch(List.of(taskId), workerA)).containsExactly(taskId);
+
+        var outcomes = claimRepo.markFailedAndRescheduleBatch(List.of(
+                new TaskClaimRepository.FailedCompletion(taskId, "late", 5), // already SUCCEEDED
+                new TaskClaimRepository.FailedCompletion(other, "final boom", 5)
+        ), workerA);
+
+        assertThat(outcomes).containsOnlyKeys(other);
+        assertThat(outcomes.get(other).becameDead()).isTrue();
+        assertThat(jdbc.queryForObject("SELECT status FROM tasks WHERE id = ?", String.class, taskId))
+                .isEqualTo("SUCCEEDED");
+        assertThat(jdbc.queryForObject("SELECT last_error FROM tasks WHERE id = ?", String.class, other))
+                .isEqualTo("final boom");
+    }
+
+    @Test
+    void claimDueTasks_claimsABatchInPollOrder_andSkipsRowsLockedByAnotherPoller() throws Exception {
+        // top priority so rows left over from other tests don't get in the way
+        long first = insertRunnable(32000, "now() - interval '2 second'");
+        long lockedByOther = insertRunnable(32000, "now() - interval '1 second'");
+        long second = insertRunnable(32000, "now()");
+        long third = insertRunnable(31999, "now() - interval '1 minute'");
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> other = CompletableFuture.runAsync(() ->
+                new TransactionTemplate(txManager).executeWithoutResult(status -> {
+                    jdbc.queryForList("SELECT id FROM tasks WHERE id = ? FOR UPDATE", lockedByOther);
+                    locked.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+        assertThat(locked.await(10, TimeUnit.SECONDS)).isTrue();
+
+        List<TaskExecutionContext> claimed;
+        try {
+            claimed = claimRepo.claimDueTasks(3, workerA); // doesn't block on the locked row
+        } finally {
+            release.countDown();
+            other.get(10, TimeUnit.SECONDS);
+        }
+
+        assertThat(claimed).extracting(TaskExecutionContext::id).containsExactly(first, second, third);
+        assertThat(claimed).allSatisfy(ctx -> assertThat(ctx.attemptCount()).isEqualTo(1));
+        assertThat(jdbc.queryForObject("SELECT status FROM tasks WHERE id = ?", String.class, first))
+                .isEqualTo("PROCESSING");
+        assertThat(jdbc.queryForObject("SELECT status FROM tasks WHERE id = ?", String.class, lockedByOther))
+                .isEqualTo("PENDING");
+
+        // the next poll picks up what was skipped
+        assertThat(claimRepo.claimDueTasks(1, workerA)).extracting(TaskExecutionContext::id).containsExactly(lockedByOther);
+    }
+
+    @Test
+    void dueTaskTransitions_areFencedByWorkerAndAttempt() {
+        long id = insertRunnable(32000, "now()");
+        long other = insertRunnable(32000, "now()");
+        List<TaskExecutionContext> claimed = claimRepo.claimDueTasks(2, workerA);
+        assertThat(claimed).extracting(TaskExecutionContext::id).containsExactlyInAnyOrder(id, other);
+        assertThat(jdbc.queryForObject("SELECT worker_id FROM tasks WHERE id = ?", String.class, id))
+                .isEqualTo(workerA);
+
+        assertThat(claimRepo.markDueTaskSucceeded(id, workerB, 1)).isEmpty(); // not this worker's claim
+        assertThat(claimRepo.markDueTaskSucceeded(id, workerA, 2)).isEmpty(); // not this attempt
+
+        var succeeded = claimRepo.markDueTaskSucceeded(id, workerA, 1).orElseThrow();
+        assertThat(succeeded.status()).isEqualTo(TaskStatus.SUCCEEDED);
+        assertThat(succeeded.attemptCount()).isEqualTo(1);
+        assertThat(claimRepo.markDueTaskFailed(id, workerA, 1, "late", 5)).isEmpty(); // already done
+
+        var failed = claimRepo.markDueTaskFailed(other, workerA, 1, "boom", 5).orElseThrow();
+        assertThat(failed.status()).isEqualTo(TaskStatus.FAILED);
+        assertThat(failed.lastError()).isEqualTo("boom");
+        assertThat(failed.nextRunAt()).isAfter(Instant.now().plusSeconds(3));
+        assertThat(jdbc.queryForObject("SELECT worker_id FROM tasks WHERE id = ?", String.class, other)).isNull();
+    }
+
+    @Test
+    void claim_takesALease_thatOnlyTheHoldingWorkerCanRenew() {
+        assertThat(claimRepo.claimEnqueuedTask(taskId, workerA)).isTrue();
+        Instant leasedUntil = leaseOf(taskId);
+        assertThat(leasedUntil).isAfter(Instant.now());
+
+        assertThat(claimRepo.renewLeases(List.of(taskId), workerB)).isEmpty();
+        jdbc.update("UPDATE tasks SET lease_expires_at = now() WHERE id = ?", taskId);
+        assertThat(claimRepo.renewLeases(List.of(taskId, -1L), workerA)).containsExactly(taskId);
+        assertThat(leaseOf(taskId)).isAfter(Instant.now().plusSeconds(claimRepo.leaseSeconds() - 5));
+
+        assertThat(claimRepo.markSucceeded(taskId, workerA)).isTrue();
+        assertThat(leaseOf(taskId)).isNull();
+    }
+
+    @Test
+    void reclaimExpiredLeases_handsTasksBack_andKillsTheOnesOnTheirLastAttempt() {
+        long lastAttempt = jdbc.queryForObject("""
+            INSERT INTO tasks(type, payload, status, created_at, updated_at, attempt_count, max_attempts, scheduled_for)
+            VALUES ('email', 'hello', 'ENQUEUED', now(), now(), 2, 3, now() - interval '1 second')
+            RETURNING id
+        """, Long.class);
+        assertThat(claimRepo.claimEnqueuedTasks(List.of(taskId, lastAttempt), workerA)).hasSize(2);
+        // the worker died: nobody renews
+        jdbc.update("UPDATE tasks SET lease_expires_at = now() - interval '1 second' WHERE id IN (?, ?)",
+                taskId, lastAttempt);
+
+        var reclaimed = claimRepo.reclaimExpiredLeases(1000, "ENQUEUED");
+
+        assertThat(reclaimed).extracting(TaskClaimRepository.ReclaimedTask::taskId).contains(taskId, lastAttempt);
+        var row = jdbc.queryForMap("SELECT status, worker_id, lease_expires_at, last_error FROM tasks WHERE id = ?", taskId);
+        assertThat(row.get("status")).isEqualTo("ENQUEUED");
+        assertThat(row.get("worker_id")).isNull();
+        assertThat(row.get("lease_expires_at")).isNull();
+        assertThat((String) row.get("last_error")).contains(workerA);
+        assertThat(jdbc.queryForObject("SELECT status FROM tasks WHERE id = ?", String.class, lastAttempt))
+                .isEqualTo("DEAD");
+
+        // the redelivered message can claim it again
+        assertThat(claimRepo.claimEnqueuedTask(taskId, workerB)).isTrue();
+    }
+
+    @Test
+    void reclaimHeldBy_ignoresTheLease_butOnlyTakesThatWorkersTasks() {
+        long other = jdbc.queryForObject("""
+            INSERT INTO tasks(type, payload, status, created_at, updated_at, attempt_count, max_attempts, scheduled_for)
+            VALUES ('email', 'hello', 'ENQUEUED', now(), now(), 0, 3, now() - interval '1 second')
+            RETURNING id
+        """, Long.class);
+        assertThat(claimRepo.claimEnqueuedTask(taskId, workerA)).isTrue();
+        assertThat(claimRepo.claimEnqueuedTask(other, workerB)).isTrue();
+
+        var reclaimed = claimRepo.reclaimHeldBy(workerA, "ENQUEUED");
+
+        // (other tests may have left rows held by worker-A too)
+        assertThat(reclaimed).extracting(TaskClaimRepository.ReclaimedTask::taskId)
+                .contains(taskId)
+                .doesNotContain(other);
+        assertThat(jdbc.queryForObject("SELECT status FROM tasks WHERE id = ?", String.class, other))
+                .isEqualTo("PROCESSING");
+    }
+
+    private Instant leaseOf(long id) {
+        Timestamp ts = jdbc.queryForObject("SELECT lease_expires_at FROM tasks WHERE id = ?", Timestamp.class, id);
+        return ts == null ? null : ts.toInstant();
+    }
+
+    private long insertRunnable(int priority, String createdAt) {
+        return jdbc.queryForObject("""
+            INSERT INTO tasks(type, payload, status, created_at, updated_at, attempt_count, max_attempts, priority)
+            VALUES ('email', 'hello', 'PENDING', %s, now(), 0, 3, ?)
+            RETURNING id
+        """.formatted(createdAt), Long.class, priority);
+    }
 }
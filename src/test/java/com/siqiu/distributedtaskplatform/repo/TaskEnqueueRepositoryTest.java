@@ -7,6 +7,8 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.sql.Timestamp;
@@ -20,6 +22,7 @@ class TaskEnqueueRepositoryTest {
 
     @Autowired JdbcTemplate jdbc;
     @Autowired TaskEnqueueRepository enqueueRepo;
+    @Autowired DataSource dataSource;
 
     @Test
     void claimDueForEnqueue_returnsOnlyDue_andLocksThem() {
@@ -51,6 +54,107 @@ class TaskEnqueueRepositoryTest {
         assertThat(notDueLock).isNull();
     }
 
+    @Test
+    void claimDueForEnqueue_takesHigherPriorityFirst_evenIfScheduledLater() {
+        Instant now = Instant.now();
+
+        long bulkId = insertTask("ENQUEUED", now.minus(60, ChronoUnit.SECONDS));
+        long urgentId = insertTask("ENQUEUED", now.minus(1, ChronoUnit.SECONDS));
+        jdbc.update("UPDATE tasks SET priority = 9 WHERE id = ?", urgentId);
+
+        var claimed = enqueueRepo.claimDueForEnqueue(1, 30);
+
+        assertThat(claimed).extracting(TaskEnqueueRepository.TaskToEnqueue::id).containsExactly(urgentId);
+        assertThat(claimed.get(0).priority()).isEqualTo(9);
+        enqueueRepo.releaseEnqueueLock(urgentId);
+        jdbc.update("UPDATE tasks SET status = 'CANCELED' WHERE id IN (?, ?)", bulkId, urgentId);
+    }
+
+    @Test
+    void claimDueForEnqueue_withLookahead_claimsSoonDueTasks_andLocksPastTheirDueTime() {
+        Instant now = Instant.now();
+
+        long soonId = insertTask("ENQUEUED", now.plus(20, ChronoUnit.SECONDS));
+        long laterId = insertTask("ENQUEUED", now.plus(10, ChronoUnit.MINUTES));
+
+        var claimed = enqueueRepo.claimDueForEnqueue(100, 30, 60);
+
+        assertThat(claimed).extracting(TaskEnqueueRepository.TaskToEnqueue::id)
+                .contains(soonId)
+                .doesNotContain(laterId);
+
+        // the lock outlives the delayed message, so the next tick doesn't send it again
+        Instant lock = jdbc.queryForObject(
+                "SELECT next_run_at FROM tasks WHERE id = ?",
+                (rs, rowNum) -> rs.getTimestamp(1).toInstant(),
+                soonId
+        );
+        assertThat(lock).isAfter(now.plus(45, ChronoUnit.SECONDS));
+        jdbc.update("UPDATE tasks SET status = 'CANCELED' WHERE id IN (?, ?)", soonId, laterId);
+    }
+
+    @Test
+    void claimDueForEnqueueInPartition_claimsOnlyItsOwnBucket() {
+        Instant due = Instant.now().minus(5, ChronoUnit.SECONDS);
+        int partitions = 2;
+        long a = insertTask("ENQUEUED", due);
+        int partitionOfA = TaskEnqueueRepository.partitionOf(a, partitions);
+        // partitions are bucket ranges, so keep inserting until a task lands in the other one
+        long b = a;
+        while (TaskEnqueueRepository.partitionOf(b, partitions) == partitionOfA) {
+            jdbc.update("UPDATE tasks SET status = 'CANCELED' WHERE id = ?", b);
+            b = insertTask("ENQUEUED", due);
+        }
+        jdbc.update("UPDATE tasks SET status = 'ENQUEUED' WHERE id = ?", a);
+
+        var claimed = enqueueRepo.claimDueForEnqueueInPartition(partitionOfA, partitions, 1000, 30, 0);
+
+        assertThat(claimed).extracting(TaskEnqueueRepository.TaskToEnqueue::id)
+                .contains(a)
+                .doesNotContain(b)
+                .allMatch(id -> TaskEnqueueRepository.partitionOf(id, partitions) == partitionOfA);
+    }
+
+    @Test
+    void claimDueForEnqueueInPartition_returnsEmpty_whileAnotherNodeHoldsThePartition() throws Exception {
+        long id = insertTask("ENQUEUED", Instant.now().minus(5, ChronoUnit.SECONDS));
+        int partitions = 4;
+        int partition = TaskEnqueueRepository.partitionOf(id, partitions);
+
+        try (Connection other = dataSource.getConnection()) {
+            other.setAutoCommit(false);
+            try (PreparedStatement ps = other.prepareStatement("SELECT pg_advisory_xact_lock(?, ?)")) {
+                ps.setInt(1, TaskEnqueueRepository.ENQUEUE_PARTITION_LOCK_CLASS);
+                ps.setInt(2, partition);
+                ps.execute();
+            }
+
+            assertThat(enqueueRepo.claimDueForEnqueueInPartition(partition, partitions, 1000, 30, 0)).isEmpty();
+
+            other.rollback();
+        }
+
+        assertThat(enqueueRepo.claimDueForEnqueueInPartition(partition, partitions, 1000, 30, 0))
+                .extracting(TaskEnqueueRepository.TaskToEnqueue::id)
+                .contains(id);
+    }
+
+    @Test
+    void releaseEnqueueLocks_unlocksAllGivenEnqueuedTasks_inOneUpdate() {
+        Instant due = Instant.now().minus(5, ChronoUnit.SECONDS);
+        long a = insertTask("ENQUEUED", due);
+        long b = insertTask("ENQUEUED", due);
+        long c = insertTask("ENQUEUED", due);
+        jdbc.update("UPDATE tasks SET next_run_at = now() + interval '30 seconds' WHERE id IN (?, ?, ?)", a, b, c);
+
+        int released = enqueueRepo.releaseEnqueueLocks(java.util.List.of(a, b));
+
+        assertThat(released).isEqualTo(2);
+        assertThat(jdbc.queryForList(
+                "SELECT id FROM tasks WHERE id IN (?, ?, ?) AND next_run_at IS NULL", Long.class, a, b, c))
+                .containsExactlyInAnyOrder(a, b);
+    }
+
     private long insertTask(String status, Instant scheduledFor) {
         return jdbc.queryForObject(
                 """
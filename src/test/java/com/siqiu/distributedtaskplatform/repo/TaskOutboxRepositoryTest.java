@@ -0,0 +1,127 @@
+package com.siqiu.distributedtaskplatform.repo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class TaskOutboxRepositoryTest {
+
+    @Autowired JdbcTemplate jdbc;
+    @Autowired TaskOutboxRepository outbox;
+
+    @BeforeEach
+    void clean() {
+        jdbc.update("DELETE FROM task_outbox");
+    }
+
+    @Test
+    void drain_deletesPublishedRows_andKeepsFailedOnes() {
+        outbox.append(101L, "email", 0, Instant.now());
+        outbox.append(102L, "email", 5, Instant.now());
+        outbox.append(103L, "report", 0, null);
+
+        List<TaskOutboxRepository.OutboxEntry> seen = new ArrayList<>();
+        var result = outbox.drain(10, 0, entries -> {
+            seen.addAll(entries);
+            return Set.of(102L);
+        });
+
+        assertThat(seen).extracting(TaskOutboxRepository.OutboxEntry::taskId).containsExactlyInAnyOrder(101L, 102L, 103L);
+        assertThat(seen).filteredOn(e -> e.taskId() == 102L).extracting(TaskOutboxRepository.OutboxEntry::priority)
+                .containsExactly(5);
+        assertThat(seen).allMatch(e -> e.scheduledFor() != null); // missing due time = now
+        assertThat(result.claimed()).isEqualTo(3);
+        assertThat(result.failed()).isEqualTo(1);
+        assertThat(jdbc.queryForList("SELECT task_id FROM task_outbox", Long.class)).containsExactly(102L);
+        assertThat(outbox.size()).isEqualTo(1);
+    }
+
+    @Test
+    void drain_leavesRowsDueBeyondTheLookahead() {
+        outbox.append(201L, "email", 0, Instant.now().plusSeconds(10));
+        outbox.append(202L, "email", 0, Instant.now().plusSeconds(3600));
+
+        var result = outbox.drain(10, 30, entries -> Set.of());
+
+        assertThat(result.claimed()).isEqualTo(1);
+        assertThat(jdbc.queryForList("SELECT task_id FROM task_outbox", Long.class)).containsExactly(202L);
+    }
+
+    @Test
+    void drain_publisherThrows_keepsEveryRow() {
+        outbox.append(301L, "email", 0, Instant.now());
+
+        assertThatThrownBy(() -> outbox.drain(10, 0, entries -> {
+            throw new RuntimeException("sqs down");
+        })).hasMessageContaining("sqs down");
+
+        assertThat(outbox.size()).isEqualTo(1);
+        // the claim was freed, so the next drain retries it right away
+        assertThat(outbox.drain(10, 0, entries -> Set.of()).claimed()).isEqualTo(1);
+    }
+
+    @Test
+    void drain_holdsNoRowLocksWhilePublishing_andOtherDrainsSkipTheClaimedRows() {
+        outbox.append(501L, "email", 0, Instant.now());
+
+        List<Long> lockedNow = new ArrayList<>();
+        List<Integer> concurrentClaims = new ArrayList<>();
+        outbox.drain(10, 0, entries -> {
+            // a separate connection can lock the row, i.e. the claim has committed already
+            lockedNow.addAll(jdbc.queryForList("SELECT task_id FROM task_outbox FOR UPDATE NOWAIT", Long.class));
+            // ...and another relay doesn't get it again while it's being sent
+            concurrentClaims.add(outbox.drain(10, 0, more -> Set.of()).claimed());
+            return Set.of();
+        });
+
+        assertThat(lockedNow).containsExactly(501L);
+        assertThat(concurrentClaims).containsExactly(0);
+        assertThat(outbox.size()).isZero();
+    }
+
+    @Test
+    void drain_reclaimsRowsWhoseClaimRanOut() {
+        outbox.append(601L, "email", 0, Instant.now());
+        // a relay claimed it and died before deleting it
+        jdbc.update("UPDATE task_outbox SET claimed_until = now() + interval '30 seconds'");
+        assertThat(outbox.drain(10, 0, entries -> Set.of()).claimed()).isZero();
+
+        jdbc.update("UPDATE task_outbox SET claimed_until = now() - interval '1 second'");
+        assertThat(outbox.drain(10, 0, entries -> Set.of()).claimed()).isEqualTo(1);
+        assertThat(outbox.size()).isZero();
+    }
+
+    @Test
+    void oldestAgeSeconds_isZeroWhenEmpty_andGrowsWithTheMostOverdueRow() {
+        assertThat(outbox.oldestAgeSeconds()).isZero();
+
+        jdbc.update("""
+                INSERT INTO task_outbox(task_id, type, priority, scheduled_for, created_at)
+                VALUES (401, 'email', 0, now() - interval '90 seconds', now() - interval '90 seconds')
+                """);
+
+        assertThat(outbox.oldestAgeSeconds()).isGreaterThanOrEqualTo(90);
+    }
+
+    @Test
+    void oldestAgeSeconds_ignoresRowsThatAreNotDueYet() {
+        // created long ago, but runAt is tomorrow: waiting on purpose, not lag
+        jdbc.update("""
+                INSERT INTO task_outbox(task_id, type, priority, scheduled_for, created_at)
+                VALUES (501, 'email', 0, now() + interval '1 day', now() - interval '2 hours')
+                """);
+
+        assertThat(outbox.oldestAgeSeconds()).isZero();
+    }
+}
@@ -14,6 +14,10 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace.NONE;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -32,6 +36,7 @@ class TaskApiIntegrationTest {
 
     @Autowired MockMvc mvc;
     @Autowired ObjectMapper om;
+    @Autowired TaskRepository repository;
 
     @Test
     void createTask_thenGetTask_returnsTask() throws Exception {
@@ -82,4 +87,78 @@ class TaskApiIntegrationTest {
                 .andExpect(status().isConflict())
                 .andExpect(jsonPath("$.message", containsString("Cannot cancel task in state")));
     }
+
+    @Test
+    void createTask_withDelay_isScheduledLater_andNotPickedUpBeforeThen() throws Exception {
+        String body = """
+            {"type":"email","payload":"later","delaySeconds":3600}
+        """;
+
+        String createdJson = mvc.perform(post("/tasks")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isCreated())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        long id = om.readTree(createdJson).get("id").asLong();
+        Instant scheduledFor = Instant.parse(om.readTree(createdJson).get("scheduledFor").asText());
+
+        assertThat(scheduledFor).isAfter(Instant.now().plusSeconds(3500));
+        // the DB-mode claim only takes PENDING/FAILED rows whose next_run_at has passed
+        Task stored = repository.findById(id).orElseThrow();
+        assertThat(stored.getStatus()).isEqualTo(TaskStatus.PENDING);
+        assertThat(stored.getNextRunAt()).isAfter(Instant.now().plusSeconds(3500));
+    }
+
+    @Test
+    void createTask_withRunAt_storesIt() throws Exception {
+        Instant runAt = Instant.now().plusSeconds(600).truncatedTo(ChronoUnit.SECONDS);
+        String body = """
+            {"type":"email","payload":"later","runAt":"%s"}
+        """.formatted(runAt);
+
+        mvc.perform(post("/tasks")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.scheduledFor", is(runAt.toString())));
+    }
+
+    @Test
+    void createTask_withBothRunAtAndDelay_returns400() throws Exception {
+        String body = """
+            {"type":"email","payload":"hello","runAt":"2030-01-01T00:00:00Z","delaySeconds":5}
+        """;
+
+        mvc.perform(post("/tasks")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void createTask_withDelayBeyondTheScheduleHorizon_returns400() throws Exception {
+        String body = """
+            {"type":"email","payload":"hello","delaySeconds":9223372036854775807}
+        """;
+
+        mvc.perform(post("/tasks")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void createTask_withRunAtBeyondTheScheduleHorizon_returns400() throws Exception {
+        String body = """
+            {"type":"email","payload":"hello","runAt":"+100000-01-01T00:00:00Z"}
+        """;
+
+        mvc.perform(post("/tasks")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isBadRequest());
+    }
 }
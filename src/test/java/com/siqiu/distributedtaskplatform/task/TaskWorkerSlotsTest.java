@@ -0,0 +1,115 @@
+package com.siqiu.distributedtaskplatform.task;
+
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
+import com.siqiu.distributedtaskplatform.worker.TaskLeaseReaper;
+import com.siqiu.distributedtaskplatform.worker.TaskProcessor;
+import com.siqiu.distributedtaskplatform.worker.WorkerIdentity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** Slot accounting of the DB-mode poll loop (TaskWorker.poll), with a mocked claim. */
+@ExtendWith(MockitoExtension.class)
+class TaskWorkerSlotsTest {
+
+    private static final int CONCURRENCY = 4;
+    private static final int BATCH_SIZE = 3;
+    private static final String WORKER_ID = "worker-1";
+
+    @Mock TaskWorkerTx tx;
+    @Mock TaskProcessor processor;
+    @Mock TaskClaimRepository claimRepo;
+    @Mock TaskLeaseReaper reaper;
+
+    // one thread and no queue: while a task runs, every further submit is rejected
+    private ThreadPoolExecutor workers;
+    private TaskWorker worker;
+    private final CountDownLatch finish = new CountDownLatch(1);
+
+    @BeforeEach
+    void setup() {
+        workers = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+        worker = new TaskWorker(tx, processor, new SimpleMeterRegistry(), claimRepo, new WorkerIdentity(WORKER_ID),
+                reaper, BATCH_SIZE, CONCURRENCY, workers, 1, 0, false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        finish.countDown();
+        workers.shutdownNow();
+    }
+
+    @Test
+    void rejectedMidBatch_givesBackTheSlots_andReleasesTheUnstartedClaims() throws Exception {
+        when(tx.claimBatchForExecution(BATCH_SIZE, WORKER_ID)).thenReturn(List.of(task(1), task(2), task(3)));
+        doAnswer(inv -> {
+            finish.await();
+            return null;
+        }).when(processor).process(any(TaskExecutionContext.class));
+
+        assertThat(worker.poll()).isTrue(); // a full claim
+
+        // task 1 runs; 2 and 3 were rejected and handed back together
+        verify(tx).releaseClaims(List.of(2L, 3L), WORKER_ID);
+        assertThat(worker.freeSlots()).isEqualTo(CONCURRENCY - 1);
+
+        finish.countDown();
+        awaitFreeSlots(CONCURRENCY);
+    }
+
+    @Test
+    void shortClaim_givesBackTheUnusedSlots_thenTheRestWhenTasksFinish() throws Exception {
+        when(tx.claimBatchForExecution(BATCH_SIZE, WORKER_ID)).thenReturn(List.of(task(1)));
+        doAnswer(inv -> {
+            finish.await();
+            return null;
+        }).when(processor).process(any(TaskExecutionContext.class));
+
+        assertThat(worker.poll()).isFalse(); // backlog drained
+
+        assertThat(worker.freeSlots()).isEqualTo(CONCURRENCY - 1);
+        finish.countDown();
+        awaitFreeSlots(CONCURRENCY);
+    }
+
+    @Test
+    void failedClaim_givesBackEverySlot() {
+        when(tx.claimBatchForExecution(anyInt(), eq(WORKER_ID))).thenThrow(new RuntimeException("db down"));
+
+        assertThatThrownBy(worker::poll).hasMessageContaining("db down");
+
+        assertThat(worker.freeSlots()).isEqualTo(CONCURRENCY);
+    }
+
+    private void awaitFreeSlots(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (worker.freeSlots() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(worker.freeSlots()).isEqualTo(expected);
+    }
+
+    private static TaskExecutionContext task(long id) {
+        return new TaskExecutionContext(id, "email", "payload", Instant.now(), 1, 3);
+    }
+}
@@ -1,9 +1,13 @@
 package com.siqiu.distributedtaskplatform.task;
 
+import com.siqiu.distributedtaskplatform.worker.TaskProcessor;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -11,6 +15,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 import java.time.Duration;
 import java.time.Instant;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 
 
 @SpringBootTest(properties = {
@@ -20,6 +26,27 @@ import java.sql.Timestamp;
 @ActiveProfiles("test")
 class TaskWorkerTest {
 
+    // Fails every task whose payload contains "fail", so the retry / DEAD paths can be driven from the payload
+    @TestConfiguration
+    static class SimulatedFailureProcessorConfig {
+        @Bean
+        @Primary
+        TaskProcessor taskProcessor() {
+            return new TaskProcessor() {
+                @Override
+                public void process(long taskId) {
+                }
+
+                @Override
+                public void process(TaskExecutionContext task) {
+                    if (task.payload() != null && task.payload().contains("fail")) {
+                        throw new TaskProcessingException("Simulated failure");
+                    }
+                }
+            };
+        }
+    }
+
     @Autowired
     TaskWorker worker;
 
@@ -29,6 +56,12 @@ class TaskWorkerTest {
     @Autowired
     JdbcTemplate jdbc;
 
+    @BeforeEach
+    void cleanTasks() {
+        // runOnce claims whatever is due, so rows left by other tests must not compete with ours
+        jdbc.update("DELETE FROM tasks");
+    }
+
     @Test
     void runOnce_claimsAndSucceedsTask_exactlyOnce() {
         // given: a pending task
@@ -155,4 +188,20 @@ class TaskWorkerTest {
         assertThat(after2.getAttemptCount()).isEqualTo(1);
         assertThat(after2.getNextRunAt()).isNull();
     }
+
+    @Test
+    void runOnce_runsTheWholeClaimedBatch() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(repository.saveAndFlush(new Task("email", "batch-" + i)).getId());
+        }
+
+        worker.runOnce(); // one claim, all three dispatched to the executor
+
+        for (Long id : ids) {
+            Task updated = repository.findById(id).orElseThrow();
+            assertThat(updated.getStatus()).isEqualTo(TaskStatus.SUCCEEDED);
+            assertThat(updated.getAttemptCount()).isEqualTo(1);
+        }
+    }
 }
@@ -1,10 +1,15 @@
 package com.siqiu.distributedtaskplatform.task;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -17,22 +22,120 @@ class TaskWorkerTxTest {
 
     @Autowired TaskWorkerTx tx;
     @Autowired TaskRepository repository;
+    @Autowired JdbcTemplate jdbc;
+
+    @BeforeEach
+    void cleanTasks() {
+        jdbc.update("DELETE FROM tasks");
+    }
+
+    @Test
+    void claimBatchForExecution_returnsPayload_andSecondClaimReturnsNothing() {
+        Task t = repository.saveAndFlush(new Task("email", "hello"));
+
+        List<TaskExecutionContext> first = tx.claimBatchForExecution(5, "worker-A");
+        List<TaskExecutionContext> second = tx.claimBatchForExecution(5, "worker-B");
+
+        assertThat(first).hasSize(1);
+        TaskExecutionContext c = first.get(0);
+        assertThat(c.id()).isEqualTo(t.getId());
+        assertThat(c.type()).isEqualTo("email");
+        assertThat(c.payload()).isEqualTo("hello");
+        assertThat(c.attemptCount()).isEqualTo(1);
+
+        Task claimed = repository.findById(t.getId()).orElseThrow();
+        assertThat(claimed.getStatus()).isEqualTo(TaskStatus.PROCESSING);
+
+        assertThat(second).isEmpty(); // already claimed
+    }
+
+    @Test
+    void markSucceeded_appliesForTheClaimingWorker_only() {
+        Task t = repository.saveAndFlush(new Task("email", "hello"));
+        TaskExecutionContext c = tx.claimBatchForExecution(1, "worker-A").get(0);
+
+        assertThat(tx.markSucceeded(c, "worker-B")).isNull(); // not the claim holder
+
+        TaskSnapshot s = tx.markSucceeded(c, "worker-A");
+        assertThat(s).isNotNull();
+        assertThat(s.status()).isEqualTo(TaskStatus.SUCCEEDED);
+        assertThat(s.attemptCount()).isEqualTo(1);
+
+        assertThat(tx.markSucceeded(c, "worker-A")).isNull(); // the claim is gone once applied
+        assertThat(repository.findById(t.getId()).orElseThrow().getStatus()).isEqualTo(TaskStatus.SUCCEEDED);
+    }
+
+    @Test
+    void markFailed_schedulesRetry_andIsFencedByAttempt() {
+        Task t = repository.saveAndFlush(new Task("email", "hello"));
+        TaskExecutionContext c = tx.claimBatchForExecution(1, "worker-A").get(0);
+
+        TaskSnapshot s = tx.markFailed(c, "worker-A", new RuntimeException("boom"));
+        assertThat(s).isNotNull();
+        assertThat(s.status()).isEqualTo(TaskStatus.FAILED);
+        assertThat(s.lastError()).isEqualTo("boom");
+        assertThat(s.nextRunAt()).isAfter(Instant.now());
+
+        // make the retry due and let the same worker claim it again: the stale attempt must not apply
+        jdbc.update("UPDATE tasks SET next_run_at = now() WHERE id = ?", t.getId());
+        TaskExecutionContext retry = tx.claimBatchForExecution(1, "worker-A").get(0);
+        assertThat(retry.attemptCount()).isEqualTo(2);
+
+        assertThat(tx.markSucceeded(c, "worker-A")).isNull();
+        assertThat(tx.markSucceeded(retry, "worker-A").status()).isEqualTo(TaskStatus.SUCCEEDED);
+    }
 
     @Test
-    void claimAndGetSnapshot_updatesExactlyOnce_thenSecondClaimReturnsNull() {
-        // given
+    void releaseClaims_returnsUnstartedTasks_withTheirAttemptTakenBack() {
         Task t = repository.saveAndFlush(new Task("email", "hello"));
-        Long id = t.getId();
+        TaskExecutionContext c = tx.claimBatchForExecution(1, "worker-A").get(0);
 
-        // when
-        TaskSnapshot s1 = tx.claimAndGetSnapshot(id);
-        TaskSnapshot s2 = tx.claimAndGetSnapshot(id);
+        assertThat(tx.releaseClaims(List.of(c.id()), "worker-B")).isZero(); // not the claim holder
+        assertThat(tx.releaseClaims(List.of(c.id()), "worker-A")).isEqualTo(1);
+
+        Task released = repository.findById(t.getId()).orElseThrow();
+        assertThat(released.getStatus()).isEqualTo(TaskStatus.PENDING);
+        assertThat(released.getAttemptCount()).isZero();
+
+        // due again right away, and its next claim is still the first attempt
+        assertThat(tx.claimBatchForExecution(1, "worker-B")).extracting(TaskExecutionContext::attemptCount)
+                .containsExactly(1);
+    }
+
+    @Test
+    void claimBatchForExecution_takesDueFailedTasks_butNotOnesStillBackingOff() {
+        long due = insertTask("FAILED", "now() - interval '1 second'", 0);
+        long notDue = insertTask("FAILED", "now() + interval '10 minutes'", 0);
 
-        // then
-        assertThat(s1).isNotNull();
-        assertThat(s1.status()).isEqualTo(TaskStatus.PROCESSING);
-        assertThat(s1.attemptCount()).isEqualTo(1);
+        assertThat(tx.claimBatchForExecution(5, "worker-A")).extracting(TaskExecutionContext::id)
+                .contains(due)
+                .doesNotContain(notDue);
+    }
+
+    @Test
+    void claimBatchForExecution_neverTakesDeadTasks() {
+        long dead = insertTask("DEAD", "NULL", 0);
+
+        assertThat(tx.claimBatchForExecution(5, "worker-A")).extracting(TaskExecutionContext::id)
+                .doesNotContain(dead);
+    }
+
+    @Test
+    void claimBatchForExecution_takesTheOldestFirst_upToTheLimit() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            ids.add(insertTask("PENDING", "NULL", 70 - i * 10)); // created oldest first
+        }
+
+        assertThat(tx.claimBatchForExecution(5, "worker-A")).extracting(TaskExecutionContext::id)
+                .containsExactlyElementsOf(ids.subList(0, 5));
+    }
 
-        assertThat(s2).isNull(); // already claimed
+    private long insertTask(String status, String nextRunAtSql, int createdSecondsAgo) {
+        return jdbc.queryForObject("""
+                INSERT INTO tasks(type, payload, status, created_at, updated_at, attempt_count, max_attempts, next_run_at)
+                VALUES ('email', 'hello', ?, now() - (? * interval '1 second'), now(), 0, 3, %s)
+                RETURNING id
+                """.formatted(nextRunAtSql), Long.class, status, createdSecondsAgo);
     }
 }
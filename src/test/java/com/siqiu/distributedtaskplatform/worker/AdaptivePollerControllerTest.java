@@ -0,0 +1,60 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptivePollerControllerTest {
+
+    @Test
+    void fullBatches_scaleUp_toMax_emptyReceives_scaleBackToOne() {
+        AdaptivePollerController c = new AdaptivePollerController(3);
+        assertThat(c.activePollers()).isEqualTo(1);
+
+        c.onReceive(10, 10, 5);
+        c.onReceive(10, 10, 5);
+        c.onReceive(10, 10, 5);
+        assertThat(c.activePollers()).isEqualTo(3); // capped
+
+        c.onReceive(10, 4, 5); // partial batch: hold
+        assertThat(c.activePollers()).isEqualTo(3);
+
+        c.onReceive(10, 0, 10);
+        c.onReceive(10, 0, 10);
+        c.onReceive(10, 0, 10);
+        assertThat(c.activePollers()).isEqualTo(1); // single long-poll when idle
+    }
+
+    @Test
+    void fullBatch_withoutFreeCapacity_doesNotScaleUp() {
+        AdaptivePollerController c = new AdaptivePollerController(3);
+
+        c.onReceive(2, 2, 0); // we only had room for 2; more pollers wouldn't help
+
+        assertThat(c.activePollers()).isEqualTo(1);
+    }
+
+    @Test
+    void parkedPoller_wakesUp_whenScaledIn() throws Exception {
+        AdaptivePollerController c = new AdaptivePollerController(2);
+        CountDownLatch woke = new CountDownLatch(1);
+
+        Thread poller = new Thread(() -> {
+            try {
+                c.awaitActive(1, 5_000);
+                if (c.isActive(1)) woke.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        poller.start();
+
+        c.onReceive(10, 10, 5);
+
+        assertThat(woke.await(2, TimeUnit.SECONDS)).isTrue();
+        poller.join(2_000);
+    }
+}
@@ -0,0 +1,51 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class PolledQueueTest {
+
+    @Test
+    void cappedQueue_blocksPollerAtMaxInFlight_untilAMessageFinishes() throws Exception {
+        PolledQueue q = new PolledQueue("slow", "http://sqs/slow", 1, 3,
+                mock(SqsAckBuffer.class), mock(VisibilityLeaseExtender.class));
+
+        assertThat(q.reserve(10)).isEqualTo(3); // only 3 slots, asked for a full batch
+        q.started();
+        q.started();
+        q.started();
+        assertThat(q.inFlight()).isEqualTo(3);
+
+        CountDownLatch reserved = new CountDownLatch(1);
+        Thread poller = new Thread(() -> {
+            try {
+                q.reserve(10);
+                reserved.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        poller.start();
+        assertThat(reserved.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        q.finished();
+
+        assertThat(reserved.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(q.inFlight()).isEqualTo(2);
+        poller.join(2_000);
+    }
+
+    @Test
+    void uncappedQueue_neverBlocks() throws Exception {
+        PolledQueue q = new PolledQueue("default", "http://sqs/default", 1, 0,
+                mock(SqsAckBuffer.class), mock(VisibilityLeaseExtender.class));
+
+        assertThat(q.reserve(10)).isEqualTo(10);
+        assertThat(q.reserve(10)).isEqualTo(10);
+    }
+}
@@ -0,0 +1,129 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SqsAckBufferTest {
+
+    @Mock SqsClient sqs;
+    @Mock TaskMetrics metrics;
+    @Mock SqsAsyncClient sqsAsync;
+
+    @Test
+    void fullBatch_isSentInline_withAtMostTenEntries() {
+        when(sqs.deleteMessageBatch(any(DeleteMessageBatchRequest.class))).thenAnswer(inv -> allSucceeded(inv.getArgument(0)));
+
+        // no timer: only size trigger / explicit flush
+        SqsAckBuffer buffer = new SqsAckBuffer(sqs, "http://queue-url", metrics, 10, 0);
+        for (int i = 0; i < 12; i++) {
+            buffer.add("rh-" + i);
+        }
+
+        // first 10 went out when the batch filled up
+        ArgumentCaptor<DeleteMessageBatchRequest> captor = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(sqs, times(1)).deleteMessageBatch(captor.capture());
+        assertThat(captor.getValue().entries()).hasSize(10);
+        assertThat(buffer.pendingCount()).isEqualTo(2);
+
+        buffer.close(); // flushes the remaining 2
+
+        verify(sqs, times(2)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        verify(metrics, times(12)).incDeleted("queue-url");
+        assertThat(buffer.pendingCount()).isZero();
+    }
+
+    @Test
+    void failedEntries_areRetried_unlessSenderFault() {
+        when(sqs.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenReturn(DeleteMessageBatchResponse.builder()
+                        .successful(DeleteMessageBatchResultEntry.builder().id("0").build())
+                        .failed(
+                                BatchResultErrorEntry.builder().id("1").senderFault(false).code("InternalError").build(),
+                                BatchResultErrorEntry.builder().id("2").senderFault(true).code("ReceiptHandleIsInvalid").build()
+                        )
+                        .build())
+                .thenAnswer(inv -> allSucceeded(inv.getArgument(0)));
+
+        SqsAckBuffer buffer = new SqsAckBuffer(sqs, "http://queue-url", metrics, 10, 0);
+        buffer.add("ok");
+        buffer.add("transient");
+        buffer.add("invalid");
+
+        buffer.flush();
+        assertThat(buffer.pendingCount()).isEqualTo(1); // only the transient failure is kept
+
+        buffer.flush();
+
+        ArgumentCaptor<DeleteMessageBatchRequest> captor = ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
+        verify(sqs, times(2)).deleteMessageBatch(captor.capture());
+        List<DeleteMessageBatchRequest> calls = captor.getAllValues();
+        assertThat(calls.get(1).entries())
+                .extracting(DeleteMessageBatchRequestEntry::receiptHandle)
+                .containsExactly("transient");
+
+        verify(metrics, times(2)).incDeleted("queue-url");
+        verify(metrics, times(1)).incDeleteFailed("queue-url");
+        assertThat(buffer.pendingCount()).isZero();
+    }
+
+    @Test
+    void wholeCallFailure_givesUpAfterMaxAttempts() {
+        when(sqs.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenThrow(new RuntimeException("down"));
+
+        SqsAckBuffer buffer = new SqsAckBuffer(sqs, "http://queue-url", metrics, 10, 0);
+        buffer.add("rh");
+
+        for (int i = 0; i < SqsAckBuffer.MAX_ATTEMPTS; i++) {
+            buffer.flush();
+        }
+
+        verify(sqs, times(SqsAckBuffer.MAX_ATTEMPTS)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        verify(metrics).incDeleteFailed("queue-url");
+        verify(metrics, never()).incDeleted(anyString());
+        assertThat(buffer.pendingCount()).isZero();
+    }
+
+    @Test
+    void asyncClient_sendsChunksWithoutTheSyncClient_andRetriesFailedFutures() {
+        when(sqsAsync.deleteMessageBatch(any(DeleteMessageBatchRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("down")))
+                .thenAnswer(inv -> CompletableFuture.completedFuture(allSucceeded(inv.getArgument(0))));
+
+        SqsAckBuffer buffer = new SqsAckBuffer(sqs, sqsAsync, "http://queue-url", metrics, 10, 0);
+        buffer.add("rh");
+
+        buffer.flush();
+        assertThat(buffer.pendingCount()).isEqualTo(1);
+
+        buffer.flush();
+
+        verify(sqsAsync, times(2)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        verifyNoInteractions(sqs);
+        verify(metrics).incDeleted("queue-url");
+        assertThat(buffer.pendingCount()).isZero();
+    }
+
+    private static DeleteMessageBatchResponse allSucceeded(DeleteMessageBatchRequest req) {
+        return DeleteMessageBatchResponse.builder()
+                .successful(req.entries().stream()
+                        .map(e -> DeleteMessageBatchResultEntry.builder().id(e.id()).build())
+                        .toList())
+                .build();
+    }
+}
@@ -35,6 +35,7 @@ import static org.assertj.core.api.Assertions.assertThat;
         properties = {
         "dtp.queue.mode=sqs",
         "dtp.sqs.worker.autostart=false",
+        "dtp.sqs.retry.in-place-grace-seconds=0", // re-send through the enqueuer (driven by hand below)
         "spring.task.scheduling.enabled=false"
 })
 class SqsEndToEndPoisonIT {
@@ -2,7 +2,9 @@ package com.siqiu.distributedtaskplatform.worker;
 
 import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
 import com.siqiu.distributedtaskplatform.queue.DeadLetterClient;
+import com.siqiu.distributedtaskplatform.queue.SqsQueueRouting;
 import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
+import com.siqiu.distributedtaskplatform.task.TaskExecutionContext;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -15,7 +17,7 @@ import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
 import java.time.Instant;
-import java.util.Optional;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.*;
@@ -39,6 +41,16 @@ class SqsWorkerLoopTest {
         when(sqs.getQueueUrl(any(GetQueueUrlRequest.class)))
                 .thenReturn(GetQueueUrlResponse.builder().queueUrl("http://queue-url").build());
 
+        // every batch delete succeeds unless a test says otherwise
+        lenient().when(sqs.deleteMessageBatch(any(DeleteMessageBatchRequest.class))).thenAnswer(inv -> {
+            DeleteMessageBatchRequest req = inv.getArgument(0);
+            return DeleteMessageBatchResponse.builder()
+                    .successful(req.entries().stream()
+                            .map(e -> DeleteMessageBatchResultEntry.builder().id(e.id()).build())
+                            .toList())
+                    .build();
+        });
+
         // autoStart = false so it won't long-poll in tests
         worker = new SqsWorkerLoop(sqs, "dtp-task-queue", claimRepo, metrics, false, dlq, processor);
     }
@@ -48,38 +60,93 @@ class SqsWorkerLoopTest {
         Message msg = Message.builder().body("not-a-number").receiptHandle("rh").build();
 
         worker.processMessage(msg);
+        worker.flushAcks();
 
-        verify(sqs).deleteMessage(argThat(hasReceipt("rh")));
-        verify(metrics).incDeleted();
+        verify(sqs).deleteMessageBatch(argThat(hasReceipt("rh")));
+        verify(metrics).incDeleted("queue-url");
         verifyNoInteractions(claimRepo);
     }
 
+    @Test
+    void batchClaim_deletesBadBodies_leavesUnclaimed_andQueuesClaimed() {
+        Message bad = Message.builder().body("nope").receiptHandle("rh-bad").build();
+        Message won = Message.builder().body("1").receiptHandle("rh-1").build();
+        Message lost = Message.builder().body("2").receiptHandle("rh-2").build();
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(1L)));
+
+        var claimed = worker.claimBatch(List.of(bad, won, lost), System.currentTimeMillis());
+        worker.flushAcks();
+
+        verify(claimRepo, times(1)).claimEnqueuedTasks(argThat(ids -> ids.containsAll(List.of(1L, 2L)) && ids.size() == 2), anyString());
+        verify(claimRepo, never()).claimEnqueuedTask(anyLong(), anyString());
+        assertEquals(List.of(1L), claimed.stream().map(p -> p.task().id()).toList());
+        verify(metrics).incClaimFailed();
+        verify(sqs).deleteMessageBatch(argThat(hasReceipt("rh-bad")));
+    }
+
+    @Test
+    void prefetchedMessage_pastVisibilityTimeout_isCounted_butStillRun() {
+        Message msg = Message.builder().body("123").receiptHandle("rh").messageId("m-1").build();
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(123L)));
+        when(claimRepo.markSucceeded(eq(123L), anyString())).thenReturn(true);
+
+        // received at t=0, picked up 31s later with the default 30s visibility timeout
+        var claimed = worker.claimBatch(List.of(msg), 0L);
+        worker.processPrefetched(claimed.get(0), 31_000L);
+
+        verify(metrics).observePrefetchWait(java.time.Duration.ofSeconds(31));
+        verify(metrics).incPrefetchExpired();
+        verify(processor).process(argThat((TaskExecutionContext t) -> t.id() == 123L)); // we still hold the DB claim
+    }
+
+    @Test
+    void returnUnstarted_releasesClaims_thenMakesMessagesVisibleRightAway() {
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(7L)));
+        when(sqs.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+                .thenReturn(ChangeMessageVisibilityBatchResponse.builder().build());
+        Message msg = Message.builder().body("7").receiptHandle("rh-7").build();
+
+        var claimed = worker.claimBatch(List.of(msg), System.currentTimeMillis());
+        worker.returnUnstarted(claimed);
+
+        InOrder inOrder = inOrder(claimRepo, sqs);
+        inOrder.verify(claimRepo).releaseClaims(eq(List.of(7L)), anyString());
+        inOrder.verify(sqs).changeMessageVisibilityBatch(argThat((ChangeMessageVisibilityBatchRequest r) ->
+                r.entries().size() == 1
+                        && "rh-7".equals(r.entries().get(0).receiptHandle())
+                        && r.entries().get(0).visibilityTimeout() == 0));
+        verifyNoInteractions(processor);
+    }
+
     @Test
     void claimFails_doesNotDelete() {
         Message msg = Message.builder().body("123").receiptHandle("rh").build();
-        when(claimRepo.claimEnqueuedTask(anyLong(), anyString())).thenReturn(false);
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of());
 
         worker.processMessage(msg);
+        worker.flushAcks();
 
         verify(metrics).incClaimFailed();
-        verify(sqs, never()).deleteMessage(any(DeleteMessageRequest.class));
-        verify(metrics, never()).incDeleted();
+        verify(sqs, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        verify(metrics, never()).incDeleted(anyString());
     }
 
     @Test
     void success_marksSucceeded_thenDeletesOnlyIfDbUpdated() {
         Message msg = Message.builder().body("123").receiptHandle("rh").build();
 
-        when(claimRepo.claimEnqueuedTask(eq(123L), anyString())).thenReturn(true);
-        when(claimRepo.getScheduledFor(123L)).thenReturn(Optional.of(Instant.now().minusSeconds(1)));
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(123L)));
         when(claimRepo.markSucceeded(eq(123L), anyString())).thenReturn(true);
-        doNothing().when(processor).process(123L);
+        doNothing().when(processor).process(any(TaskExecutionContext.class));
 
         worker.processMessage(msg);
+        worker.flushAcks();
 
         verify(claimRepo).markSucceeded(eq(123L), anyString());
-        verify(sqs).deleteMessage(argThat(hasReceipt("rh")));
-        verify(metrics).incDeleted();
+        verify(claimRepo, never()).getScheduledFor(anyLong()); // came back with the claim
+        verify(metrics).observeScheduleLag(any());
+        verify(sqs).deleteMessageBatch(argThat(hasReceipt("rh")));
+        verify(metrics).incDeleted("queue-url");
         verify(metrics).incTasksSucceeded();
     }
 
@@ -87,68 +154,106 @@ class SqsWorkerLoopTest {
     void success_dbUpdateFails_doesNotDelete() {
         Message msg = Message.builder().body("123").receiptHandle("rh").build();
 
-        when(claimRepo.claimEnqueuedTask(eq(123L), anyString())).thenReturn(true);
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(123L)));
         when(claimRepo.markSucceeded(eq(123L), anyString())).thenReturn(false);
-        doNothing().when(processor).process(123L);
+        doNothing().when(processor).process(any(TaskExecutionContext.class));
+
+        worker.processMessage(msg);
+        worker.flushAcks();
+
+        verify(sqs, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        verify(metrics, never()).incDeleted(anyString());
+    }
+
+    @Test
+    void failure_retriesInPlace_holdsEnqueueLock_andDelaysSameMessage() {
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(123L)));
+        when(claimRepo.markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong(), anyLong()))
+                .thenReturn(new TaskClaimRepository.FailOutcome(true, false, 1, 3));
+        when(sqs.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+                .thenReturn(ChangeMessageVisibilityBatchResponse.builder()
+                        .successful(ChangeMessageVisibilityBatchResultEntry.builder().id("0").build())
+                        .build());
+        doThrow(new RuntimeException("boom")).when(processor).process(any(TaskExecutionContext.class));
+
+        // in-place retries on (60s grace); off by default
+        SqsWorkerLoop worker = new SqsWorkerLoop(sqs, null, "dtp-task-queue", claimRepo, metrics, false, dlq, processor,
+                new SqsWorkerSettings(10, true, 10, 100, 30, 4, 20, 10, 0, 100, 30, 30, 60), SqsQueueRouting.none());
+
+        Message msg = Message.builder().body("123").receiptHandle("rh-retry").build();
 
         worker.processMessage(msg);
+        worker.flushAcks();
 
-        verify(sqs, never()).deleteMessage(any(DeleteMessageRequest.class));
-        verify(metrics, never()).incDeleted();
+        // backoff 30s, enqueuer held off for backoff + 60s grace
+        verify(claimRepo).markFailedAndRescheduleOutcome(eq(123L), anyString(), contains("boom"), eq(30L), eq(60L));
+
+        ArgumentCaptor<ChangeMessageVisibilityBatchRequest> captor =
+                ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+        verify(sqs).changeMessageVisibilityBatch(captor.capture());
+        assertEquals("rh-retry", captor.getValue().entries().get(0).receiptHandle());
+        assertEquals(30, captor.getValue().entries().get(0).visibilityTimeout());
+
+        verify(sqs, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        verify(metrics).incRetriedInPlace("dtp-task-queue");
+        verify(metrics).incTasksFailed();
     }
 
     @Test
     void failure_marksFailedAndReschedule_thenDeletesOnlyIfDbUpdated() throws Exception {
-        when(claimRepo.claimEnqueuedTask(eq(123L), anyString())).thenReturn(true);
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(123L)));
 
-        when(claimRepo.markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong()))
+        when(claimRepo.markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong(), anyLong()))
                 .thenReturn(new TaskClaimRepository.FailOutcome(true, false, 1, 3));
-        doThrow(new RuntimeException("boom")).when(processor).process(123L);
-
-        SqsWorkerLoop worker = new SqsWorkerLoop(sqs, "dtp-task-queue", claimRepo, metrics, false, dlq, processor) {};
+        doThrow(new RuntimeException("boom")).when(processor).process(any(TaskExecutionContext.class));
 
+        // in-place retries off (the default): delete and let the enqueuer send it again
         Message msg = Message.builder().body("123").receiptHandle("rh-1").build();
 
         worker.processMessage(msg);
+        worker.flushAcks();
 
         verify(claimRepo).markFailedAndRescheduleOutcome(
                 eq(123L),
                 anyString(),
                 contains("boom"),
-                anyLong()
+                anyLong(),
+                eq(0L)
         );
 
-        ArgumentCaptor<DeleteMessageRequest> captor =
-                ArgumentCaptor.forClass(DeleteMessageRequest.class);
+        ArgumentCaptor<DeleteMessageBatchRequest> captor =
+                ArgumentCaptor.forClass(DeleteMessageBatchRequest.class);
 
-        verify(sqs).deleteMessage(captor.capture());   // ✅ unambiguous: matches request overload
+        verify(sqs).deleteMessageBatch(captor.capture());   // ✅ unambiguous: matches request overload
 
-        DeleteMessageRequest req = captor.getValue();
+        DeleteMessageBatchRequest req = captor.getValue();
         assertEquals("http://queue-url", req.queueUrl());
-        assertEquals("rh-1", req.receiptHandle());
+        assertEquals(1, req.entries().size());
+        assertEquals("rh-1", req.entries().get(0).receiptHandle());
 
-        verify(metrics).incDeleted();
+        verify(metrics).incDeleted("queue-url");
         verify(metrics).incTasksFailed();
     }
 
     @Test
     void failure_dbUpdateFails_doesNotDelete() throws Exception {
-        when(claimRepo.claimEnqueuedTask(eq(123L), anyString())).thenReturn(true);
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(123L)));
 
-        when(claimRepo.markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong()))
+        when(claimRepo.markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong(), anyLong()))
                 .thenReturn(new TaskClaimRepository.FailOutcome(false, false, 1, 3));
-        doThrow(new RuntimeException("boom")).when(processor).process(123L);
+        doThrow(new RuntimeException("boom")).when(processor).process(any(TaskExecutionContext.class));
 
         SqsWorkerLoop worker = new SqsWorkerLoop(sqs, "dtp-task-queue", claimRepo, metrics, false, dlq, processor) {};
 
         Message msg = Message.builder().body("123").receiptHandle("rh-2").build();
 
         worker.processMessage(msg);
+        worker.flushAcks();
 
-        verify(claimRepo).markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong());
+        verify(claimRepo).markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong(), anyLong());
 
-        verify(sqs, never()).deleteMessage(any(DeleteMessageRequest.class));
-        verify(metrics, never()).incDeleted();
+        verify(sqs, never()).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        verify(metrics, never()).incDeleted(anyString());
         verify(metrics).incTasksFailed();
     }
 
@@ -165,7 +270,7 @@ class SqsWorkerLoopTest {
 //
 //        Message msg = Message.builder().body("123").receiptHandle("rh").build();
 //
-//        when(claimRepo.claimEnqueuedTask(eq(123L), anyString())).thenReturn(true);
+//        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(123L)));
 //        when(claimRepo.markFailedAndReschedule(eq(123L), anyString(), anyString(), anyLong())).thenReturn(true);
 //
 //        worker.processMessage(msg);
@@ -187,33 +292,40 @@ class SqsWorkerLoopTest {
 //
 //        Message msg = Message.builder().body("123").receiptHandle("rh").build();
 //
-//        when(claimRepo.claimEnqueuedTask(eq(123L), anyString())).thenReturn(true);
+//        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(123L)));
 //        when(claimRepo.markFailedAndReschedule(eq(123L), anyString(), anyString(), anyLong())).thenReturn(false);
 //
 //        worker.processMessage(msg);
 //
 //        verify(sqs, never()).deleteMessage(any(DeleteMessageRequest.class));
-//        verify(metrics, never()).incDeleted();
+//        verify(metrics, never()).incDeleted(anyString());
 //    }
 
-    private static ArgumentMatcher<DeleteMessageRequest> hasReceipt(String rh) {
-        return r -> r != null && rh.equals(r.receiptHandle()) && "http://queue-url".equals(r.queueUrl());
+    private static TaskExecutionContext task(long id) {
+        return new TaskExecutionContext(id, "email", "hello", Instant.now().minusSeconds(1), 1, 3);
+    }
+
+    private static ArgumentMatcher<DeleteMessageBatchRequest> hasReceipt(String rh) {
+        return r -> r != null
+                && "http://queue-url".equals(r.queueUrl())
+                && r.entries().stream().anyMatch(e -> rh.equals(e.receiptHandle()));
     }
 
     @Test
     void failure_becameDead_publishesToDlq_thenDeletes_onlyIfDbUpdated() {
-        when(claimRepo.claimEnqueuedTask(eq(123L), anyString())).thenReturn(true);
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(123L)));
 
         // DB records failure and marks DEAD
-        when(claimRepo.markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong()))
+        when(claimRepo.markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong(), anyLong()))
                 .thenReturn(new TaskClaimRepository.FailOutcome(true, true, 3, 3));
-        doThrow(new RuntimeException("boom")).when(processor).process(123L);
+        doThrow(new RuntimeException("boom")).when(processor).process(any(TaskExecutionContext.class));
 
         SqsWorkerLoop worker = new SqsWorkerLoop(sqs, QUEUE_NAME, claimRepo, metrics, false, dlq, processor) {};
 
         Message msg = Message.builder().body("123").receiptHandle("rh-dead").build();
 
         worker.processMessage(msg);
+        worker.flushAcks();
 
         // Must publish to DLQ when becameDead=true
         verify(dlq, times(1)).publishDeadTask(argThat(ev ->
@@ -224,40 +336,41 @@ class SqsWorkerLoopTest {
         ));
 
         // Delete message only after DB update succeeded (and DLQ publish happened)
-        verify(sqs).deleteMessage(argThat(hasReceipt("rh-dead")));
-        verify(metrics).incDeleted();
+        verify(sqs).deleteMessageBatch(argThat(hasReceipt("rh-dead")));
+        verify(metrics).incDeleted("queue-url");
         verify(metrics).incTasksFailed();
         verify(metrics).incTasksDeadLettered();
 
         // Optional but high-signal: enforce ordering (publish before delete)
         InOrder inOrder = inOrder(dlq, sqs);
         inOrder.verify(dlq).publishDeadTask(any());
-        inOrder.verify(sqs).deleteMessage(any(DeleteMessageRequest.class));
+        inOrder.verify(sqs).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
     }
 
     @Test
     void failure_becameDead_butDlqPublishThrows_stillDeletesMessage() {
-        when(claimRepo.claimEnqueuedTask(eq(123L), anyString())).thenReturn(true);
+        when(claimRepo.claimEnqueuedTasks(anyCollection(), anyString())).thenReturn(List.of(task(123L)));
 
-        when(claimRepo.markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong()))
+        when(claimRepo.markFailedAndRescheduleOutcome(eq(123L), anyString(), anyString(), anyLong(), anyLong()))
                 .thenReturn(new TaskClaimRepository.FailOutcome(true, true, 3, 3));
 
         doThrow(new RuntimeException("dlq-down"))
                 .when(dlq).publishDeadTask(any());
-        doThrow(new RuntimeException("boom")).when(processor).process(123L);
+        doThrow(new RuntimeException("boom")).when(processor).process(any(TaskExecutionContext.class));
 
         SqsWorkerLoop worker = new SqsWorkerLoop(sqs, QUEUE_NAME, claimRepo, metrics, false, dlq, processor) {};
 
         Message msg = Message.builder().body("123").receiptHandle("rh-dlq-fail").build();
 
         worker.processMessage(msg);
+        worker.flushAcks();
 
         // attempted DLQ publish (best effort)
         verify(dlq).publishDeadTask(any());
 
         // still deletes to avoid poison-loop
-        verify(sqs).deleteMessage(argThat(hasReceipt("rh-dlq-fail")));
-        verify(metrics).incDeleted();
+        verify(sqs).deleteMessageBatch(argThat(hasReceipt("rh-dlq-fail")));
+        verify(metrics).incDeleted("queue-url");
         verify(metrics).incTasksFailed();
         verify(metrics).incTasksDeadLettered();
 
@@ -0,0 +1,74 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository.FailOutcome;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TaskCompletionWriterTest {
+
+    @Mock TaskClaimRepository claimRepo;
+
+    @Test
+    void concurrentCompletions_goOutAsOneUpdatePerKind_andEachCallerGetsItsOwnResult() {
+        when(claimRepo.markSucceededBatch(anyCollection(), eq("w"))).thenReturn(Set.of(1L));
+        when(claimRepo.markFailedAndRescheduleBatch(anyList(), eq("w")))
+                .thenReturn(Map.of(3L, new FailOutcome(true, true, 3, 3)));
+
+        // long interval: only the size trigger (4 completions) flushes
+        TaskCompletionWriter writer = new TaskCompletionWriter(claimRepo, "w", 60_000, 4);
+        ExecutorService callers = Executors.newFixedThreadPool(4); // each caller blocks until the flush
+
+        var ok = CompletableFuture.supplyAsync(() -> writer.markSucceeded(1L), callers);
+        var lost = CompletableFuture.supplyAsync(() -> writer.markSucceeded(2L), callers);
+        var dead = CompletableFuture.supplyAsync(() -> writer.markFailedAndReschedule(3L, "boom", 30), callers);
+        var stale = CompletableFuture.supplyAsync(() -> writer.markFailedAndReschedule(4L, "boom", 30), callers);
+
+        assertThat(ok.join()).isTrue();
+        assertThat(lost.join()).isFalse(); // not PROCESSING for us anymore -> caller must not delete
+        assertThat(dead.join().becameDead()).isTrue();
+        assertThat(stale.join().updated()).isFalse();
+
+        verify(claimRepo, times(1)).markSucceededBatch(anyCollection(), eq("w"));
+        verify(claimRepo, times(1)).markFailedAndRescheduleBatch(anyList(), eq("w"));
+        verify(claimRepo, never()).markSucceeded(anyLong(), anyString());
+        writer.close();
+        callers.shutdown();
+    }
+
+    @Test
+    void dbError_isThrownToEveryCallerInTheBatch() {
+        when(claimRepo.markSucceededBatch(anyCollection(), anyString())).thenThrow(new IllegalStateException("db down"));
+
+        TaskCompletionWriter writer = new TaskCompletionWriter(claimRepo, "w", 60_000, 1);
+
+        assertThatThrownBy(() -> writer.markSucceeded(1L)).isInstanceOf(IllegalStateException.class);
+        writer.close();
+    }
+
+    @Test
+    void zeroInterval_isPassthrough() {
+        when(claimRepo.markSucceeded(1L, "w")).thenReturn(true);
+
+        TaskCompletionWriter writer = new TaskCompletionWriter(claimRepo, "w", 0, 100);
+
+        assertThat(writer.markSucceeded(1L)).isTrue();
+        verify(claimRepo, never()).markSucceededBatch(anyCollection(), anyString());
+        writer.close();
+    }
+}
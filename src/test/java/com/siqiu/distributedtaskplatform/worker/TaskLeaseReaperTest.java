@@ -0,0 +1,71 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
+import com.siqiu.distributedtaskplatform.queue.DeadLetterClient;
+import com.siqiu.distributedtaskplatform.queue.DeadTaskEvent;
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository.ReclaimedTask;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TaskLeaseReaperTest {
+
+    @Mock TaskClaimRepository claimRepo;
+    @Mock TaskMetrics metrics;
+    @Mock DeadLetterClient dlq;
+    @Mock ObjectProvider<DeadLetterClient> dlqProvider;
+
+    private TaskLeaseReaper reaper(String mode) {
+        return new TaskLeaseReaper(claimRepo, metrics, dlqProvider, mode, 2, 10_000, false);
+    }
+
+    @Test
+    void reapOnce_keepsReclaimingWhileBatchesComeBackFull_andReEnqueuesInSqsMode() {
+        when(dlqProvider.getIfAvailable()).thenReturn(dlq);
+        when(claimRepo.reclaimExpiredLeases(2, "ENQUEUED")).thenReturn(
+                List.of(reclaimed(1, false), reclaimed(2, false)),
+                List.of(reclaimed(3, false)));
+
+        assertThat(reaper("sqs").reapOnce()).isEqualTo(3);
+
+        verify(claimRepo, times(2)).reclaimExpiredLeases(2, "ENQUEUED");
+        verify(metrics).incLeasesReclaimed(2);
+        verify(metrics).incLeasesReclaimed(1);
+        verifyNoInteractions(dlq);
+    }
+
+    @Test
+    void tasksOnTheirLastAttempt_becomeDead_andGoToTheDlqInSqsMode() {
+        when(dlqProvider.getIfAvailable()).thenReturn(dlq);
+        when(claimRepo.reclaimHeldBy("w1", "ENQUEUED")).thenReturn(List.of(reclaimed(7, true), reclaimed(8, false)));
+
+        assertThat(reaper("sqs").reclaimHeldBy("w1")).isEqualTo(2);
+
+        verify(dlq).publishDeadTask(argThat((DeadTaskEvent e) -> e.taskId() == 7 && "w1".equals(e.workerId())));
+        verify(metrics).incTasksDeadLettered();
+    }
+
+    @Test
+    void dbMode_retriesAsFailed_andHasNoDlq() {
+        when(claimRepo.reclaimExpiredLeases(2, "FAILED")).thenReturn(List.of(reclaimed(1, true)));
+
+        assertThat(reaper("db").reapOnce()).isEqualTo(1);
+
+        verify(dlqProvider, never()).getIfAvailable();
+        verify(metrics, never()).incTasksDeadLettered();
+    }
+
+    private static ReclaimedTask reclaimed(long id, boolean dead) {
+        return new ReclaimedTask(id, "w1", dead, dead ? 3 : 1, 3);
+    }
+}
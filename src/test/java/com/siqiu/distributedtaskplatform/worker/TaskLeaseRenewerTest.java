@@ -0,0 +1,39 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import com.siqiu.distributedtaskplatform.repo.TaskClaimRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TaskLeaseRenewerTest {
+
+    @Mock TaskClaimRepository claimRepo;
+
+    @Test
+    void renew_coversEverythingHeldInOneCall_andForgetsTasksItNoLongerOwns() {
+        TaskLeaseRenewer renewer = new TaskLeaseRenewer(claimRepo, "w");
+        renewer.hold(1L);
+        renewer.hold(2L);
+        renewer.hold(3L);
+        renewer.release(3L);
+        when(claimRepo.renewLeases(anyCollection(), eq("w"))).thenReturn(Set.of(1L)); // 2 was reclaimed
+
+        renewer.renew();
+
+        verify(claimRepo).renewLeases(argThat(ids -> ids.size() == 2 && ids.containsAll(Set.of(1L, 2L))), eq("w"));
+        assertThat(renewer.size()).isEqualTo(1);
+
+        renewer.release(1L);
+        renewer.renew(); // nothing held: no UPDATE
+        verifyNoMoreInteractions(claimRepo);
+        renewer.close();
+    }
+}
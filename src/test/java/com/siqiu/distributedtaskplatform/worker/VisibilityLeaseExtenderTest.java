@@ -0,0 +1,85 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import com.siqiu.distributedtaskplatform.metrics.TaskMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.time.Clock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class VisibilityLeaseExtenderTest {
+
+    @Mock SqsClient sqs;
+    @Mock TaskMetrics metrics;
+    @Mock Clock clock;
+
+    @Test
+    void extendsOnlyWhenLessThanHalfTheTimeoutIsLeft_andStopsAfterUntrack() {
+        when(sqs.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+                .thenAnswer(inv -> {
+                    ChangeMessageVisibilityBatchRequest req = inv.getArgument(0);
+                    return ChangeMessageVisibilityBatchResponse.builder()
+                            .successful(req.entries().stream()
+                                    .map(e -> ChangeMessageVisibilityBatchResultEntry.builder().id(e.id()).build())
+                                    .toList())
+                            .build();
+                });
+
+        // no background heartbeat; we drive it by hand
+        VisibilityLeaseExtender extender =
+                new VisibilityLeaseExtender(sqs, "http://queue-url", metrics, 30, clock, false);
+        extender.track("rh", 0L); // visible until t=30s
+
+        when(clock.millis()).thenReturn(10_000L); // 20s left -> nothing to do
+        extender.heartbeat();
+        verify(sqs, never()).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+
+        when(clock.millis()).thenReturn(20_000L); // 10s left -> extend
+        extender.heartbeat();
+
+        ArgumentCaptor<ChangeMessageVisibilityBatchRequest> captor =
+                ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+        verify(sqs).changeMessageVisibilityBatch(captor.capture());
+        ChangeMessageVisibilityBatchRequestEntry entry = captor.getValue().entries().get(0);
+        assertThat(entry.receiptHandle()).isEqualTo("rh");
+        assertThat(entry.visibilityTimeout()).isEqualTo(30);
+        verify(metrics).incVisibilityExtended("queue-url");
+
+        when(clock.millis()).thenReturn(30_000L); // now visible until t=50s -> nothing to do
+        extender.heartbeat();
+        verify(sqs, times(1)).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+
+        extender.untrack("rh");
+        when(clock.millis()).thenReturn(45_000L);
+        extender.heartbeat();
+        verify(sqs, times(1)).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+        assertThat(extender.trackedCount()).isZero();
+    }
+
+    @Test
+    void failedCall_isCounted_andRetriedOnNextHeartbeat() {
+        when(sqs.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+                .thenThrow(new RuntimeException("down"));
+
+        VisibilityLeaseExtender extender =
+                new VisibilityLeaseExtender(sqs, "http://queue-url", metrics, 30, clock, false);
+        extender.track("rh", 0L);
+
+        when(clock.millis()).thenReturn(20_000L);
+        extender.heartbeat();
+        extender.heartbeat();
+
+        verify(sqs, times(2)).changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class));
+        verify(metrics, times(2)).incVisibilityExtendFailed("queue-url");
+        verify(metrics, never()).incVisibilityExtended(anyString());
+    }
+}
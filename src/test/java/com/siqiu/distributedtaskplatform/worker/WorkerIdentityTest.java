@@ -0,0 +1,25 @@
+package com.siqiu.distributedtaskplatform.worker;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WorkerIdentityTest {
+
+    @Test
+    void withoutConfiguredId_everyProcessGetsItsOwnRandomId() {
+        WorkerIdentity a = new WorkerIdentity("");
+        WorkerIdentity b = new WorkerIdentity("  ");
+
+        assertThat(a.id()).isNotEqualTo(b.id()); // same host, still distinct
+        assertThat(a.configured()).isFalse();
+    }
+
+    @Test
+    void configuredId_isUsedAsIs() {
+        WorkerIdentity w = new WorkerIdentity(" worker-0 ");
+
+        assertThat(w.id()).isEqualTo("worker-0");
+        assertThat(w.configured()).isTrue();
+    }
+}